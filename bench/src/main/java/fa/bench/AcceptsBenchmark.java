@@ -0,0 +1,132 @@
+package fa.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.dfa.CompiledDFA;
+import fa.dfa.DFA;
+import fa.dfa.MatcherSession;
+import fa.nfa.LazyDFA;
+import fa.nfa.MatchMode;
+import fa.nfa.NFA;
+
+/**
+ * Matching throughput on the DFA of the n-th symbol from the end NFA.
+ * Every benchmark runs the same seeded batch of strings; the scores are
+ * per string.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AcceptsBenchmark {
+
+    private static final int BATCH = 1000;
+    private static final int CHUNK = 100;
+
+    @Param({"10"})
+    public int n;
+
+    @Param({"64", "1024"})
+    public int length;
+
+    private List<String> inputs;
+    private NFA nfa;
+    private DFA dfa;
+    private CompiledDFA compiled;
+    private LazyDFA lazy;
+    private MatcherSession session;
+
+    @Setup
+    public void setup(){
+        this.inputs = Generators.randomInputs(1, BATCH, this.length / 2, this.length, "ab");
+        this.nfa = Generators.nthFromLast(this.n);
+        this.nfa.setMatchMode(MatchMode.SIMULATE);
+        this.dfa = this.nfa.getDFA();
+        this.compiled = this.dfa.compile();
+        this.session = this.compiled.newSession();
+        this.lazy = this.nfa.getLazyDFA(1 << (this.n + 1));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int dfaAccepts(){
+        int yes = 0;
+        for(String s : this.inputs){
+            if(this.dfa.accepts(s)){
+                yes++;
+            }
+        }
+        return yes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int compiledAccepts(){
+        int yes = 0;
+        for(String s : this.inputs){
+            if(this.compiled.accepts(s)){
+                yes++;
+            }
+        }
+        return yes;
+    }
+
+    /**
+     * Every string fed to a reused session in chunks of CHUNK characters
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int sessionChunks(){
+        int yes = 0;
+        for(String s : this.inputs){
+            for(int from = 0; from < s.length(); from += CHUNK){
+                this.session.feed(s, from, Math.min(s.length(), from + CHUNK));
+            }
+            if(this.session.isAccepting()){
+                yes++;
+            }
+            this.session.reset();
+        }
+        return yes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int lazyAccepts(){
+        int yes = 0;
+        for(String s : this.inputs){
+            if(this.lazy.accepts(s)){
+                yes++;
+            }
+        }
+        return yes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int nfaSimulate(){
+        int yes = 0;
+        for(String s : this.inputs){
+            if(this.nfa.accepts(s)){
+                yes++;
+            }
+        }
+        return yes;
+    }
+}
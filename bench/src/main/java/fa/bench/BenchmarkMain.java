@@ -0,0 +1,29 @@
+package fa.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options and always
+ * adds the GC profiler, so every result also shows the allocation rate
+ * (gc.alloc.rate.norm is the number of bytes allocated per operation).
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if(cli.shouldHelp()){
+            cli.showHelp();
+            return;
+        }
+        if(cli.shouldList()){
+            new Runner(cli).list();
+            return;
+        }
+        Options opts = new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class).build();
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,91 @@
+package fa.bench;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.dfa.DFA;
+import fa.nfa.NFA;
+import fa.nfa.NFAParser;
+
+/**
+ * Throughput of building automata through addState and addTransition.
+ * The names and transitions are generated once, so only the builder
+ * calls are measured. nfaParse reads the same NFA from the text of an
+ * input file with NFAParser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuilderBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int states;
+
+    @Param({"4"})
+    public int perState; //at most 4, the size of the alphabet
+
+    private Generators.Spec spec;
+    private Generators.Spec dfaSpec;
+    private String text;
+    private NFAParser parser;
+
+    @Setup
+    public void setup(){
+        this.spec = Generators.randomNFA(42, this.states, this.perState, "abcd", 0.1);
+        //one transition per state and symbol, so that the DFA builder accepts all of them
+        this.text = this.spec.toText();
+        this.parser = new NFAParser();
+        this.dfaSpec = Generators.randomNFA(42, this.states, this.perState, "abcd", 0);
+        for(int i = 0; i < this.dfaSpec.on.length; i++){
+            this.dfaSpec.on[i] = "abcd".charAt(i % this.perState);
+        }
+    }
+
+    @Benchmark
+    public NFA nfaAddTransition(){
+        return this.spec.build();
+    }
+
+    @Benchmark
+    public NFA nfaAddTransitions(){
+        return this.spec.buildBulk();
+    }
+
+    @Benchmark
+    public NFA nfaParse(){
+        return this.parser.parse(CharBuffer.wrap(this.text));
+    }
+
+    @Benchmark
+    public DFA dfaAddTransition(){
+        Generators.Spec s = this.dfaSpec;
+        DFA dfa = new DFA();
+        dfa.addStartState(s.states[0]);
+        for(int i = 1; i < s.states.length; i++){
+            if(s.isFinal[i]){
+                dfa.addFinalState(s.states[i]);
+            }else{
+                dfa.addState(s.states[i]);
+            }
+        }
+        for(int i = 0; i < s.from.length; i++){
+            dfa.addTransition(s.from[i], s.on[i], s.to[i]);
+        }
+        return dfa;
+    }
+}
@@ -0,0 +1,82 @@
+package fa.bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.dfa.DFA;
+import fa.nfa.NFA;
+
+/**
+ * NFA.getDFA on the n-th symbol from the end NFA, whose DFA has 2^n
+ * states, so the cost of the subset construction grows exponentially
+ * with n. getDFA caches its result, so the full constructions run on a
+ * new NFA every time; getDFACached and getDFAIncremental measure the
+ * cache and the rebuild after one added transition.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeterminizeBenchmark {
+
+    @Param({"8", "12", "16"})
+    public int n;
+
+    private NFA nfa;
+
+    @Setup
+    public void setup(){
+        this.nfa = Generators.nthFromLast(this.n);
+    }
+
+    @Benchmark
+    public DFA getDFA(){
+        return Generators.nthFromLast(this.n).getDFA();
+    }
+
+    @Benchmark
+    public DFA getDFAParallel(){
+        return Generators.nthFromLast(this.n).getDFA(ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public DFA getDFACached(){
+        return this.nfa.getDFA();
+    }
+
+    @Benchmark
+    public DFA getDFAIncremental(Edited edited){
+        return edited.nfa.getDFA();
+    }
+
+    /**
+     * An NFA whose DFA was built once before a transition from the final
+     * state was added, so half of the subsets have to be explored again
+     */
+    @State(Scope.Thread)
+    public static class Edited {
+        NFA nfa;
+
+        @Setup(Level.Invocation)
+        public void setup(DeterminizeBenchmark bench){
+            this.nfa = Generators.nthFromLast(bench.n);
+            this.nfa.getDFA();
+            this.nfa.addTransition("q" + bench.n, 'a', "q0");
+        }
+    }
+}
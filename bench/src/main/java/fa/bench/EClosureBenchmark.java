@@ -0,0 +1,77 @@
+package fa.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fa.nfa.NFA;
+import fa.nfa.NFAState;
+
+/**
+ * Cost of NFA.eClosure on random NFAs with many e transitions, both with
+ * the closure index already built and right after an e transition was
+ * added, which makes the next call rebuild it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EClosureBenchmark {
+
+    @Param({"100", "1000"})
+    public int states;
+
+    @Param({"0.3"})
+    public double epsilonRate;
+
+    private NFA nfa;
+    private List<NFAState> all;
+    private String eFrom;
+    private String eTo;
+
+    @Setup
+    public void setup(){
+        Generators.Spec spec = Generators.randomNFA(7, this.states, 3, "ab", this.epsilonRate);
+        this.nfa = spec.build();
+        this.all = new ArrayList<NFAState>();
+        for(Object s : this.nfa.getStates()){
+            this.all.add((NFAState) s);
+        }
+        for(int i = 0; i < spec.on.length; i++){
+            if(spec.on[i] == 'e'){
+                this.eFrom = spec.from[i];
+                this.eTo = spec.to[i];
+                break;
+            }
+        }
+    }
+
+    @Benchmark
+    public void closureOfEveryState(Blackhole bh){
+        for(NFAState s : this.all){
+            bh.consume(this.nfa.eClosure(s));
+        }
+    }
+
+    @Benchmark
+    public Object firstClosure(){
+        //adding an existing e transition leaves the NFA as it is but drops the closure index
+        this.nfa.addTransition(this.eFrom, 'e', this.eTo);
+        return this.nfa.eClosure(this.all.get(0));
+    }
+}
@@ -0,0 +1,197 @@
+package fa.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import fa.nfa.NFA;
+
+/**
+ * Seeded generators for the benchmark automata and inputs.
+ * The same seed always gives the same NFA and the same strings, so two
+ * runs of a benchmark (before and after a change) measure the same work.
+ */
+public final class Generators {
+
+    private Generators(){
+    }
+
+    /**
+     * Builds the NFA of all strings over {a, b} whose n-th symbol from the
+     * end is an a. It has n + 1 states, but its DFA needs 2^n states.
+     * @param n the position of the a, counted from the end
+     * @return the NFA, with states q0 (start) to qn (final)
+     */
+    public static NFA nthFromLast(int n){
+        NFA nfa = new NFA();
+        nfa.addStartState("q0");
+        for(int i = 1; i < n; i++){
+            nfa.addState("q" + i);
+        }
+        nfa.addFinalState("q" + n);
+        nfa.addTransition("q0", 'a', "q0");
+        nfa.addTransition("q0", 'b', "q0");
+        nfa.addTransition("q0", 'a', "q1");
+        for(int i = 1; i < n; i++){
+            nfa.addTransition("q" + i, 'a', "q" + (i + 1));
+            nfa.addTransition("q" + i, 'b', "q" + (i + 1));
+        }
+        return nfa;
+    }
+
+    /**
+     * Builds the NFA of all strings over an alphabet that contain a word
+     * @param word the word, must not contain 'e'
+     * @param abc the alphabet, must not contain 'e'
+     * @return the NFA, with states w0 (start) to wn (final) for a word of length n
+     */
+    public static NFA containing(String word, String abc){
+        NFA nfa = new NFA();
+        int n = word.length();
+        nfa.addStartState("w0");
+        for(int i = 1; i < n; i++){
+            nfa.addState("w" + i);
+        }
+        nfa.addFinalState("w" + n);
+        for(char c : abc.toCharArray()){
+            nfa.addTransition("w0", c, "w0");
+            nfa.addTransition("w" + n, c, "w" + n);
+        }
+        for(int i = 0; i < n; i++){
+            nfa.addTransition("w" + i, word.charAt(i), "w" + (i + 1));
+        }
+        return nfa;
+    }
+
+    /**
+     * A random NFA as three parallel transition arrays, ready for
+     * addTransition or the bulk addTransitions
+     */
+    public static final class Spec {
+        public final String[] states; //states[0] is the start state
+        public final boolean[] isFinal;
+        public final String[] from;
+        public final char[] on;
+        public final String[] to;
+
+        Spec(String[] states, boolean[] isFinal, String[] from, char[] on, String[] to){
+            this.states = states;
+            this.isFinal = isFinal;
+            this.from = from;
+            this.on = on;
+            this.to = to;
+        }
+
+        /**
+         * @return a new NFA built with one addTransition call per transition
+         */
+        public NFA build(){
+            NFA nfa = new NFA();
+            addStates(nfa);
+            for(int i = 0; i < this.from.length; i++){
+                nfa.addTransition(this.from[i], this.on[i], this.to[i]);
+            }
+            return nfa;
+        }
+
+        /**
+         * @return a new NFA built with a single addTransitions call
+         */
+        public NFA buildBulk(){
+            NFA nfa = new NFA();
+            addStates(nfa);
+            nfa.addTransitions(this.from, this.on, this.to);
+            return nfa;
+        }
+
+        /**
+         * @return the four header lines of an NFADriver input file for
+         * this NFA, for NFAParser
+         */
+        public String toText(){
+            StringBuilder sb = new StringBuilder();
+            for(int i = 1; i < this.states.length; i++){
+                if(this.isFinal[i]){
+                    sb.append(this.states[i]).append(' ');
+                }
+            }
+            sb.append('\n').append(this.states[0]).append('\n');
+            for(int i = 1; i < this.states.length; i++){
+                if(!this.isFinal[i]){
+                    sb.append(this.states[i]).append(' ');
+                }
+            }
+            sb.append('\n');
+            for(int i = 0; i < this.from.length; i++){
+                sb.append(this.from[i]).append(this.on[i]).append(this.to[i]).append(' ');
+            }
+            return sb.append('\n').toString();
+        }
+
+        private void addStates(NFA nfa){
+            nfa.addStartState(this.states[0]);
+            for(int i = 1; i < this.states.length; i++){
+                if(this.isFinal[i]){
+                    nfa.addFinalState(this.states[i]);
+                }else{
+                    nfa.addState(this.states[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates a random NFA. Every state gets the given number of
+     * transitions on random symbols of abc to random states; each of them
+     * is an e transition with probability epsilonRate. About one state in
+     * eight is final, the start state never is.
+     * @param seed
+     * @param states the number of states
+     * @param perState the number of transitions leaving every state
+     * @param abc the alphabet, must not contain 'e'
+     * @param epsilonRate the share of e transitions, between 0 and 1
+     * @return the NFA description
+     */
+    public static Spec randomNFA(long seed, int states, int perState, String abc, double epsilonRate){
+        Random rnd = new Random(seed);
+        String[] names = new String[states];
+        boolean[] isFinal = new boolean[states];
+        for(int i = 0; i < states; i++){
+            names[i] = "s" + i;
+            isFinal[i] = i > 0 && rnd.nextInt(8) == 0;
+        }
+        int m = states * perState;
+        String[] from = new String[m];
+        char[] on = new char[m];
+        String[] to = new String[m];
+        for(int i = 0; i < m; i++){
+            from[i] = names[i / perState];
+            on[i] = rnd.nextDouble() < epsilonRate ? 'e' : abc.charAt(rnd.nextInt(abc.length()));
+            to[i] = names[rnd.nextInt(states)];
+        }
+        return new Spec(names, isFinal, from, on, to);
+    }
+
+    /**
+     * Generates random input strings
+     * @param seed
+     * @param count the number of strings
+     * @param minLen the shortest length, at least 2 so that no string is "e"
+     * @param maxLen the longest length
+     * @param abc the characters to draw from
+     * @return the strings
+     */
+    public static List<String> randomInputs(long seed, int count, int minLen, int maxLen, String abc){
+        Random rnd = new Random(seed);
+        List<String> inputs = new ArrayList<String>(count);
+        char[] buf = new char[maxLen];
+        for(int i = 0; i < count; i++){
+            int len = minLen + rnd.nextInt(maxLen - minLen + 1);
+            for(int j = 0; j < len; j++){
+                buf[j] = abc.charAt(rnd.nextInt(abc.length()));
+            }
+            inputs.add(new String(buf, 0, len));
+        }
+        return inputs;
+    }
+}
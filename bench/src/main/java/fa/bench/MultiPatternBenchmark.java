@@ -0,0 +1,93 @@
+package fa.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.dfa.CompiledDFA;
+import fa.nfa.MultiPattern;
+import fa.nfa.NFA;
+
+/**
+ * Matching every string against k patterns, each the strings over
+ * {a, b, c, d} that contain a random word of length 4: one compiled DFA
+ * per pattern run one after the other, against one MultiPattern. The
+ * score is per string.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiPatternBenchmark {
+
+    private static final int BATCH = 1000;
+    private static final String ABC = "abcd";
+
+    @Param({"4", "16"})
+    public int k;
+
+    @Param({"256"})
+    public int length;
+
+    private List<String> inputs;
+    private CompiledDFA[] separate;
+    private MultiPattern union;
+
+    @Setup
+    public void setup(){
+        this.inputs = Generators.randomInputs(1, BATCH, this.length / 2, this.length, ABC);
+        Random rnd = new Random(2);
+        List<NFA> patterns = new ArrayList<NFA>();
+        this.separate = new CompiledDFA[this.k];
+        for(int i = 0; i < this.k; i++){
+            char[] word = new char[4];
+            for(int j = 0; j < word.length; j++){
+                word[j] = ABC.charAt(rnd.nextInt(ABC.length()));
+            }
+            NFA nfa = Generators.containing(new String(word), ABC);
+            patterns.add(nfa);
+            this.separate[i] = nfa.getDFA().compile();
+        }
+        this.union = new MultiPattern(patterns);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int separateScans(){
+        int matches = 0;
+        for(String s : this.inputs){
+            for(CompiledDFA dfa : this.separate){
+                if(dfa.accepts(s)){
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int multiPattern(){
+        int matches = 0;
+        for(String s : this.inputs){
+            matches += this.union.matches(s).cardinality();
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,70 @@
+package fa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.dfa.DFA;
+
+/**
+ * Language operations on the DFA of nthFromLast(n), which has 2^n
+ * states: checking it against an equal minimized copy with the
+ * union-find check and by building both differences, finding a string
+ * that tells it apart from nthFromLast(n - 1), and building its
+ * intersection with the DFA of the strings containing abba.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductBenchmark {
+
+    @Param({"12", "16"})
+    public int n;
+
+    private DFA dfa;
+    private DFA minimized; //the same language
+    private DFA shorter; //nthFromLast(n - 1)
+    private DFA abba;
+
+    @Setup
+    public void setup(){
+        this.dfa = Generators.nthFromLast(this.n).getDFA();
+        this.minimized = Generators.nthFromLast(this.n).getDFA();
+        this.minimized.minimize();
+        this.shorter = Generators.nthFromLast(this.n - 1).getDFA();
+        this.abba = Generators.containing("abba", "ab").getDFA();
+    }
+
+    @Benchmark
+    public boolean equivalent(){
+        return this.dfa.equivalent(this.minimized);
+    }
+
+    @Benchmark
+    public boolean equivalentByDifferences(){
+        return this.dfa.difference(this.minimized).isEmpty() && this.minimized.difference(this.dfa).isEmpty();
+    }
+
+    @Benchmark
+    public String distinguish(){
+        return this.dfa.distinguishingString(this.shorter);
+    }
+
+    @Benchmark
+    public DFA intersection(){
+        return this.dfa.intersection(this.abba);
+    }
+}
@@ -0,0 +1,56 @@
+package fa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.dfa.CompiledDFA;
+import fa.nfa.AutomatonRegistry;
+import fa.nfa.NFA;
+
+/**
+ * Getting the compiled DFA of a machine that was asked for before, as a
+ * new NFA each time: determinizing it again, and looking it up in an
+ * AutomatonRegistry that already holds it. Both include building the
+ * NFA, which getDFA caches per NFA.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+    @Param({"8", "12"})
+    public int n;
+
+    private AutomatonRegistry registry;
+
+    @Setup
+    public void setup(){
+        this.registry = new AutomatonRegistry(Long.MAX_VALUE);
+        this.registry.get(Generators.nthFromLast(this.n));
+    }
+
+    @Benchmark
+    public CompiledDFA rebuild(){
+        return Generators.nthFromLast(this.n).getDFA().compile();
+    }
+
+    @Benchmark
+    public CompiledDFA registry(){
+        NFA nfa = Generators.nthFromLast(this.n);
+        return this.registry.get(nfa);
+    }
+}
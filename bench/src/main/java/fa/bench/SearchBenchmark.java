@@ -0,0 +1,82 @@
+package fa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.dfa.CompiledDFA;
+import fa.nfa.NFA;
+import fa.nfa.Searcher;
+
+/**
+ * Finding the leftmost-longest occurrences of the strings a(b|c)*d in a
+ * random text over {a, b, c, d}: with a Searcher, and by testing the
+ * substrings that start at each position with the compiled DFA, longest
+ * first. The score is per text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"1024"})
+    public int length;
+
+    private String text;
+    private CompiledDFA dfa;
+    private Searcher searcher;
+
+    @Setup
+    public void setup(){
+        this.text = Generators.randomInputs(3, 1, this.length, this.length, "abcd").get(0);
+        NFA nfa = new NFA();
+        nfa.addStartState("0");
+        nfa.addState("1");
+        nfa.addFinalState("2");
+        nfa.addTransition("0", 'a', "1");
+        nfa.addTransition("1", 'b', "1");
+        nfa.addTransition("1", 'c', "1");
+        nfa.addTransition("1", 'd', "2");
+        this.dfa = nfa.getDFA().compile();
+        this.searcher = new Searcher(nfa);
+    }
+
+    @Benchmark
+    public int searcher(){
+        return this.searcher.countMatches(this.text);
+    }
+
+    @Benchmark
+    public int substrings(){
+        int matches = 0;
+        int pos = 0;
+        while(pos < this.text.length()){
+            int end = -1;
+            for(int e = this.text.length(); e > pos && end < 0; e--){
+                if(this.dfa.accepts(this.text.subSequence(pos, e))){
+                    end = e;
+                }
+            }
+            if(end < 0){
+                pos++;
+            }else{
+                matches++;
+                pos = end;
+            }
+        }
+        return matches;
+    }
+}
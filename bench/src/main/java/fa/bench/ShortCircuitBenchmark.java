@@ -0,0 +1,84 @@
+package fa.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fa.dfa.CompiledDFA;
+import fa.dfa.DFA;
+import fa.nfa.NFA;
+
+/**
+ * Matching long records whose outcome is decided by their first symbols:
+ * the language of strings over {a, b} that start with ab. Records starting
+ * otherwise reach the dead state, the others an accepting sink, so the
+ * matchers stop after at most two symbols. The score is per record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShortCircuitBenchmark {
+
+    private static final int BATCH = 100;
+
+    @Param({"100000"})
+    public int length;
+
+    private List<String> inputs;
+    private DFA dfa;
+    private CompiledDFA compiled;
+
+    @Setup
+    public void setup(){
+        this.inputs = Generators.randomInputs(1, BATCH, this.length, this.length, "ab");
+        NFA nfa = new NFA();
+        nfa.addStartState("p");
+        nfa.addState("q");
+        nfa.addFinalState("r");
+        nfa.addTransition("p", 'a', "q");
+        nfa.addTransition("q", 'b', "r");
+        nfa.addTransition("r", 'a', "r");
+        nfa.addTransition("r", 'b', "r");
+        this.dfa = nfa.getDFA();
+        this.compiled = this.dfa.compile();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int dfaAccepts(){
+        int yes = 0;
+        for(String s : this.inputs){
+            if(this.dfa.accepts(s)){
+                yes++;
+            }
+        }
+        return yes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int compiledAccepts(){
+        int yes = 0;
+        for(String s : this.inputs){
+            if(this.compiled.accepts(s)){
+                yes++;
+            }
+        }
+        return yes;
+    }
+}
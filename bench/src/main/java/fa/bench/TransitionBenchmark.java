@@ -0,0 +1,126 @@
+package fa.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fa.dfa.DFA;
+import fa.dfa.DFAState;
+import fa.nfa.NFA;
+import fa.nfa.NFAState;
+
+/**
+ * Lookup time of single transitions in NFAState and DFAState. The memory
+ * taken by the transitions shows up as gc.alloc.rate.norm of the
+ * BuilderBenchmark and buildDFA benchmarks, which keep every allocated
+ * object alive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransitionBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Param({"2", "26"})
+    public int symbols;
+
+    private NFAState[] nfaFrom;
+    private DFAState[] dfaFrom;
+    private char[] on;
+    private NFA nfa;
+
+    @Setup
+    public void setup(){
+        String abc = "abcdfghijklmnopqrstuvwxyz0".substring(0, this.symbols);
+        this.nfa = Generators.randomNFA(11, 1000, 2 * this.symbols, abc, 0).build();
+        DFA dfa = buildDFA(abc);
+        List<NFAState> ns = new ArrayList<NFAState>();
+        for(Object s : this.nfa.getStates()){
+            ns.add((NFAState) s);
+        }
+        List<DFAState> ds = new ArrayList<DFAState>(dfa.getStates());
+        Random rnd = new Random(3);
+        this.nfaFrom = new NFAState[LOOKUPS];
+        this.dfaFrom = new DFAState[LOOKUPS];
+        this.on = new char[LOOKUPS];
+        for(int i = 0; i < LOOKUPS; i++){
+            this.nfaFrom[i] = ns.get(rnd.nextInt(ns.size()));
+            this.dfaFrom[i] = ds.get(rnd.nextInt(ds.size()));
+            this.on[i] = abc.charAt(rnd.nextInt(abc.length()));
+        }
+    }
+
+    /**
+     * @return a complete random DFA with 1000 states over abc
+     */
+    private static DFA buildDFA(String abc){
+        Random rnd = new Random(5);
+        DFA dfa = new DFA();
+        dfa.addStartState("d0");
+        for(int i = 1; i < 1000; i++){
+            dfa.addState("d" + i);
+        }
+        for(int i = 0; i < 1000; i++){
+            for(int j = 0; j < abc.length(); j++){
+                dfa.addTransition("d" + i, abc.charAt(j), "d" + rnd.nextInt(1000));
+            }
+        }
+        return dfa;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void nfaGetToStates(Blackhole bh){
+        for(int i = 0; i < LOOKUPS; i++){
+            bh.consume(this.nfaFrom[i].getToStates(this.on[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int nfaIterateToStates(){
+        int count = 0;
+        for(int i = 0; i < LOOKUPS; i++){
+            Set<NFAState> to = this.nfaFrom[i].getToStates(this.on[i]);
+            if(to != null){
+                for(NFAState s : to){
+                    count += s.getIsFinal() ? 1 : 0;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void dfaGetTo(Blackhole bh){
+        for(int i = 0; i < LOOKUPS; i++){
+            bh.consume(this.dfaFrom[i].getTo(this.on[i]));
+        }
+    }
+
+    @Benchmark
+    public DFA buildDFA(){
+        return buildDFA("abcdfghijklmnopqrstuvwxyz0".substring(0, this.symbols));
+    }
+}
@@ -29,6 +29,7 @@ public interface FAInterface {
 	 * @param fromState is the label of the state where the transition starts
 	 * @param onSymb is the symbol from the DFA's alphabet.
 	 * @param toState is the label of the state where the transition ends
+	 * @throws IllegalArgumentException if either state does not exist
 	 */
 	public abstract void addTransition(String fromState, char onSymb,
 			String toState);
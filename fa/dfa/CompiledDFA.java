@@ -0,0 +1,574 @@
+package fa.dfa;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import fa.metrics.AutomatonMetrics;
+import fa.metrics.Metrics;
+
+/**
+ * Table driven form of a DFA for fast matching.
+ * The alphabet of the DFA is mapped to dense symbol ids and the symbols
+ * are grouped into classes: symbols whose transitions agree in every
+ * state share a class and a single column of the table. The states are
+ * numbered in the order of DFA.getStates() and delta is a single flat
+ * int array indexed by state * (number of classes) + class. Final states
+ * are kept in a bitset. Matching does not allocate.
+ *
+ * States are classified when the table is built: a dead state cannot reach
+ * a final state and an accepting sink is a final state that only leads to
+ * accepting sinks. Matching runs on a copy of the table in which moves into
+ * such states are replaced by markers, so it stops as soon as the outcome
+ * is decided without an extra test per character. After an accepting sink
+ * the rest of the input is only checked for characters outside the alphabet,
+ * which still reject it.
+ *
+ * A CompiledDFA never changes after it is built, so one instance can be
+ * shared by any number of threads.
+ */
+public final class CompiledDFA implements TransitionTable {
+	private final char[] alphabet;//symbol id -> character
+	private final int[] symbolOf;//character -> symbol id, -1 if not in the alphabet
+	private final int[] classOf;//symbol id -> class
+	final int[] classOfChar;//character -> class, -1 if not in the alphabet
+	final int classes;
+	private final int[] delta;//state * classes + class -> state, -1 if missing
+	private final long[] finals;
+	private final int start;
+	private final String[] names;
+	private final byte[] kinds;//state -> LIVE, DEAD or SINK
+	//matching state, shared with MatcherSession
+	final int[] run;//delta with moves into dead states and accepting sinks replaced by TO_DEAD and TO_SINK
+	final int runStart;//start, or the marker if the start state is dead or a sink
+	final boolean allBytes;//every byte value is in the alphabet
+
+	/**
+	 * State kinds
+	 */
+	static final byte LIVE = 0, DEAD = 1, SINK = 2;
+
+	/**
+	 * Markers in run. A missing transition and a character outside the
+	 * alphabet stay -1.
+	 */
+	static final int TO_DEAD = -2, TO_SINK = -3;
+
+	/**
+	 * Batches are split until a task holds at most this many strings,
+	 * always a multiple of 64 so that no two tasks share a result word
+	 */
+	private static final int BATCH_GRAIN = 1024;
+
+	/**
+	 * Compiles the DFA as it is now, later changes to it are not seen
+	 * @param dfa the DFA to compile
+	 */
+	CompiledDFA(DFA dfa){
+		Set<Character> abc = dfa.getABC();
+		alphabet = new char[abc.size()];
+		int k = 0;
+		int max = -1;
+		for(char c : abc){
+			alphabet[k++] = c;
+			max = Math.max(max, c);
+		}
+		symbolOf = new int[max + 1];
+		Arrays.fill(symbolOf, -1);
+		for(int i = 0; i < k; i++){
+			symbolOf[alphabet[i]] = i;
+		}
+
+		Set<DFAState> states = dfa.getStates();
+		int n = states.size();
+		Map<DFAState,Integer> ids = new IdentityHashMap<DFAState,Integer>(n * 2);
+		names = new String[n];
+		for(DFAState s : states){
+			names[ids.size()] = s.getName();
+			ids.put(s, ids.size());
+		}
+		//column j holds the targets on symbol j, columns are grouped into classes below
+		int[][] columns = new int[k][n];
+		finals = new long[(n + 63) >>> 6];
+		int id = 0;
+		for(DFAState s : states){
+			for(int j = 0; j < k; j++){
+				DFAState to = s.peekTo(alphabet[j]);
+				columns[j][id] = to == null ? -1 : ids.get(to);
+			}
+			if(s.isFinal()){
+				finals[id >>> 6] |= 1L << id;
+			}
+			id++;
+		}
+		start = dfa.getStartState() == null ? -1 : ids.get(dfa.getStartState());
+
+		classOf = new int[k];
+		Map<IntArrayKey,Integer> byColumn = new HashMap<IntArrayKey,Integer>();
+		int[] first = new int[k];
+		int c = 0;
+		for(int j = 0; j < k; j++){
+			IntArrayKey key = new IntArrayKey(columns[j]);
+			Integer cls = byColumn.get(key);
+			if(cls == null){
+				cls = c;
+				first[c++] = j;
+				byColumn.put(key, cls);
+			}
+			classOf[j] = cls;
+		}
+		classes = c;
+		delta = new int[n * c];
+		for(int cls = 0; cls < c; cls++){
+			int[] column = columns[first[cls]];
+			for(int q = 0; q < n; q++){
+				delta[q * c + cls] = column[q];
+			}
+		}
+		classOfChar = new int[max + 1];
+		Arrays.fill(classOfChar, -1);
+		for(int j = 0; j < k; j++){
+			classOfChar[alphabet[j]] = classOf[j];
+		}
+		boolean bytes = classOfChar.length >= 256;
+		for(int b = 0; b < 256 && bytes; b++){
+			bytes = classOfChar[b] >= 0;
+		}
+		allBytes = bytes;
+
+		kinds = classify(delta, n, c, finals);
+		boolean decided = false;
+		for(byte kind : kinds){
+			decided |= kind != LIVE;
+		}
+		if(decided){
+			run = new int[delta.length];
+			for(int e = 0; e < delta.length; e++){
+				run[e] = marker(delta[e]);
+			}
+		}else{
+			run = delta;
+		}
+		runStart = marker(start);
+	}
+
+	/**
+	 * Finds the dead states and the accepting sinks. Both are found by
+	 * walking the transitions backwards: from the final states to the
+	 * states that can reach them, and from the states that are not sinks
+	 * by themselves (not final, or a transition missing) to the states
+	 * that can reach those.
+	 * @return the kind of every state
+	 */
+	private static byte[] classify(int[] delta, int n, int c, long[] finals){
+		//predecessors: pred[predStart[q] .. predStart[q + 1]) have a transition to q
+		int[] predStart = new int[n + 1];
+		for(int to : delta){
+			if(to >= 0){
+				predStart[to + 1]++;
+			}
+		}
+		for(int q = 0; q < n; q++){
+			predStart[q + 1] += predStart[q];
+		}
+		int[] pred = new int[predStart[n]];
+		int[] fill = Arrays.copyOf(predStart, n);
+		for(int e = 0; e < delta.length; e++){
+			if(delta[e] >= 0){
+				pred[fill[delta[e]]++] = e / c;
+			}
+		}
+
+		boolean[] live = new boolean[n];
+		boolean[] notSink = new boolean[n];
+		int[] queue = new int[n];
+		int tail = 0;
+		for(int q = 0; q < n; q++){
+			if((finals[q >>> 6] & (1L << q)) != 0){
+				live[q] = true;
+				queue[tail++] = q;
+			}
+		}
+		reach(live, queue, tail, pred, predStart);
+		tail = 0;
+		for(int q = 0; q < n; q++){
+			boolean sink = live[q] && (finals[q >>> 6] & (1L << q)) != 0;
+			for(int cls = 0; cls < c && sink; cls++){
+				sink = delta[q * c + cls] >= 0;
+			}
+			if(!sink){
+				notSink[q] = true;
+				queue[tail++] = q;
+			}
+		}
+		reach(notSink, queue, tail, pred, predStart);
+
+		byte[] kinds = new byte[n];
+		for(int q = 0; q < n; q++){
+			kinds[q] = !live[q] ? DEAD : !notSink[q] ? SINK : LIVE;
+		}
+		return kinds;
+	}
+
+	/**
+	 * Marks every state that can reach a queued state
+	 * @param marked the marked states, the queued ones already marked
+	 * @param queue the queued states
+	 * @param tail the number of queued states
+	 */
+	private static void reach(boolean[] marked, int[] queue, int tail, int[] pred, int[] predStart){
+		for(int head = 0; head < tail; head++){
+			int q = queue[head];
+			for(int e = predStart[q]; e < predStart[q + 1]; e++){
+				int p = pred[e];
+				if(!marked[p]){
+					marked[p] = true;
+					queue[tail++] = p;
+				}
+			}
+		}
+	}
+
+	private int marker(int state){
+		if(state < 0){
+			return state;
+		}
+		return kinds[state] == DEAD ? TO_DEAD : kinds[state] == SINK ? TO_SINK : state;
+	}
+
+	/**
+	 * An int array compared by content, for grouping table columns
+	 */
+	private static final class IntArrayKey {
+		private final int[] a;
+		private final int hash;
+
+		IntArrayKey(int[] a){
+			this.a = a;
+			this.hash = Arrays.hashCode(a);
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			return o instanceof IntArrayKey && ((IntArrayKey) o).hash == hash && Arrays.equals(((IntArrayKey) o).a, a);
+		}
+	}
+
+	/**
+	 * Simulates the DFA on a character sequence. As in DFA.accepts the
+	 * single character "e" stands for the empty string unless e is in the
+	 * alphabet. Characters outside the alphabet reject the input.
+	 * @param s the input
+	 * @return true if s is in the language of the DFA
+	 */
+	public boolean accepts(CharSequence s){
+		int len = s.length();
+		if(len == 1 && s.charAt(0) == 'e' && symbolOf('e') < 0){
+			return matched(0, 0, start);
+		}
+		int k = classes;
+		int st = runStart;
+		int i;
+		for(i = 0; i < len && st >= 0; i++){
+			int c = s.charAt(i);
+			int cls = c < classOfChar.length ? classOfChar[c] : -1;
+			st = cls < 0 ? -1 : run[st * k + cls];
+		}
+		for(int j = i; j < len && st == TO_SINK; j++){
+			if(symbolOf(s.charAt(j)) < 0){
+				st = -1;
+			}
+		}
+		return matched(i, len - i, st);
+	}
+
+	/**
+	 * Simulates the DFA on a slice of a character array
+	 * @param buf the characters
+	 * @param off the index of the first character
+	 * @param len the number of characters
+	 * @return true if the slice is in the language of the DFA
+	 */
+	public boolean accepts(char[] buf, int off, int len){
+		if(len == 1 && buf[off] == 'e' && symbolOf('e') < 0){
+			return matched(0, 0, start);
+		}
+		int k = classes;
+		int st = runStart;
+		int i;
+		for(i = off; i < off + len && st >= 0; i++){
+			int c = buf[i];
+			int cls = c < classOfChar.length ? classOfChar[c] : -1;
+			st = cls < 0 ? -1 : run[st * k + cls];
+		}
+		for(int j = i; j < off + len && st == TO_SINK; j++){
+			if(symbolOf(buf[j]) < 0){
+				st = -1;
+			}
+		}
+		return matched(i - off, off + len - i, st);
+	}
+
+	/**
+	 * Simulates the DFA on the remaining bytes of a buffer, each byte read
+	 * as an ISO-8859-1 character. The buffer position is not changed.
+	 * @param buf the input
+	 * @return true if the bytes are in the language of the DFA
+	 */
+	public boolean accepts(ByteBuffer buf){
+		return accepts(buf, buf.position(), buf.limit());
+	}
+
+	/**
+	 * Simulates the DFA on bytes from index from (inclusive) to index to
+	 * (exclusive) of a buffer, using absolute gets
+	 * @param buf the input
+	 * @param from the index of the first byte
+	 * @param to the index after the last byte
+	 * @return true if the bytes are in the language of the DFA
+	 */
+	public boolean accepts(ByteBuffer buf, int from, int to){
+		if(to - from == 1 && buf.get(from) == 'e' && symbolOf('e') < 0){
+			return matched(0, 0, start);
+		}
+		int k = classes;
+		int st = runStart;
+		int i;
+		for(i = from; i < to && st >= 0; i++){
+			int c = buf.get(i) & 0xFF;
+			int cls = c < classOfChar.length ? classOfChar[c] : -1;
+			st = cls < 0 ? -1 : run[st * k + cls];
+		}
+		for(int j = i; j < to && st == TO_SINK && !allBytes; j++){
+			if(symbolOf((char) (buf.get(j) & 0xFF)) < 0){
+				st = -1;
+			}
+		}
+		return matched(i - from, to - i, st);
+	}
+
+	/**
+	 * Creates a session that matches an input fed to it in chunks
+	 * @return a new session at the start state
+	 */
+	public MatcherSession newSession(){
+		return new MatcherSession(this, null);
+	}
+
+	/**
+	 * Tests many strings at once on the common fork-join pool
+	 * @param inputs the strings to test
+	 * @return a bitset with bit i set if inputs.get(i) is accepted
+	 */
+	public BitSet acceptsAll(List<? extends CharSequence> inputs){
+		return acceptsAll(inputs, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Tests many strings at once. The list is split into ranges that are
+	 * matched in parallel; every range writes its own words of the result.
+	 * The list must support fast random access and must not change
+	 * during the call.
+	 * @param inputs the strings to test
+	 * @param pool the pool that runs the matching
+	 * @return a bitset with bit i set if inputs.get(i) is accepted
+	 */
+	public BitSet acceptsAll(List<? extends CharSequence> inputs, ForkJoinPool pool){
+		long[] words = new long[(inputs.size() + 63) >>> 6];
+		pool.invoke(new BatchTask(inputs, words, 0, inputs.size()));
+		return BitSet.valueOf(words);
+	}
+
+	/**
+	 * Matches a range of a batch, splitting it while it is large
+	 */
+	private final class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<? extends CharSequence> inputs;
+		private final long[] words;
+		private final int from;
+		private final int to;
+
+		BatchTask(List<? extends CharSequence> inputs, long[] words, int from, int to){
+			this.inputs = inputs;
+			this.words = words;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if(to - from <= BATCH_GRAIN){
+				for(int i = from; i < to; i++){
+					if(accepts(inputs.get(i))){
+						words[i >>> 6] |= 1L << i;
+					}
+				}
+				return;
+			}
+			int mid = (from + (to - from) / 2) & ~63;
+			invokeAll(new BatchTask(inputs, words, from, mid), new BatchTask(inputs, words, mid, to));
+		}
+	}
+
+	/**
+	 * @return the number of states
+	 */
+	public int getStateCount(){
+		return names.length;
+	}
+
+	/**
+	 * @return the number of alphabet symbols
+	 */
+	public int getSymbolCount(){
+		return alphabet.length;
+	}
+
+	/**
+	 * @param c a character
+	 * @return the symbol id of c or -1 if c is not in the alphabet
+	 */
+	public int symbolOf(char c){
+		return c < symbolOf.length ? symbolOf[c] : -1;
+	}
+
+	/**
+	 * @param symbol a symbol id
+	 * @return the character of the symbol
+	 */
+	public char getSymbol(int symbol){
+		return alphabet[symbol];
+	}
+
+	/**
+	 * @return the id of the start state, -1 if the DFA has none
+	 */
+	public int getStartState(){
+		return start;
+	}
+
+	/**
+	 * Uses the transition table
+	 * @param state the source state id
+	 * @param symbol the symbol id
+	 * @return the target state id or -1 if there is no transition
+	 */
+	public int next(int state, int symbol){
+		return delta[state * classes + classOf[symbol]];
+	}
+
+	/**
+	 * @return the number of symbol classes, the width of the table
+	 */
+	public int getClassCount(){
+		return classes;
+	}
+
+	/**
+	 * @param symbol a symbol id
+	 * @return the class of the symbol
+	 */
+	public int classOf(int symbol){
+		return classOf[symbol];
+	}
+
+	/**
+	 * Uses the transition table
+	 * @param state the source state id
+	 * @param cls a symbol class
+	 * @return the target state id or -1 if there is no transition
+	 */
+	public int nextByClass(int state, int cls){
+		return delta[state * classes + cls];
+	}
+
+	/**
+	 * @param state a state id, may be -1
+	 * @return true if state is a final state
+	 */
+	public boolean isFinal(int state){
+		return state >= 0 && (finals[state >>> 6] & (1L << state)) != 0;
+	}
+
+	/**
+	 * @param state a state id
+	 * @return true if no final state can be reached from the state
+	 */
+	public boolean isDead(int state){
+		return kinds[state] == DEAD;
+	}
+
+	/**
+	 * @param state a state id
+	 * @return true if every input in the alphabet leads from the state to
+	 * a final state
+	 */
+	public boolean isAcceptingSink(int state){
+		return kinds[state] == SINK;
+	}
+
+	/**
+	 * @param state a state id
+	 * @return LIVE, DEAD or SINK
+	 */
+	byte kindOf(int state){
+		return kinds[state];
+	}
+
+	/**
+	 * Reports a finished match to the metrics
+	 * @param steps the number of characters run through the table
+	 * @param rest the number of characters after them
+	 * @param st the state or marker the match ended in, -1 if it fell off
+	 * the table
+	 * @return true if the input is accepted
+	 */
+	private boolean matched(int steps, int rest, int st){
+		boolean ret = st == TO_SINK || isFinal(st);
+		AutomatonMetrics metrics = Metrics.get();
+		metrics.match(steps, ret, st == -1 || st == TO_DEAD);
+		if(rest > 0 && st <= TO_DEAD){
+			metrics.shortCircuit(rest);
+		}
+		return ret;
+	}
+
+	/**
+	 * Estimates the heap taken by the table: its arrays and the state
+	 * names, counting 16 bytes for every array and object header
+	 * @return the estimated size in bytes
+	 */
+	public long getMemorySize(){
+		long size = 8 * 16 + 2L * alphabet.length + 4L * (symbolOf.length + classOf.length + classOfChar.length)
+				+ 4L * delta.length + 8L * finals.length + kinds.length;
+		if(run != delta){
+			size += 16 + 4L * run.length;
+		}
+		size += 16 + 8L * names.length;
+		for(String name : names){
+			size += 40 + name.length();
+		}
+		return size;
+	}
+
+	/**
+	 * @param state a state id
+	 * @return the label of the state in the DFA it was compiled from
+	 */
+	public String getStateName(int state){
+		return names[state];
+	}
+}
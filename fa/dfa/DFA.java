@@ -1,8 +1,18 @@
 package fa.dfa;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import fa.metrics.Metrics;
+
 /**
  * Implementation of DFA class to be used
  * in p1p2
@@ -13,10 +23,20 @@ public class DFA implements DFAInterface{
 	private Set<DFAState> states;
 	private DFAState start;
 	private Set<Character> ordAbc;
+	private Map<String,DFAState> index;//state name -> state, kept in step with states
+	private volatile CompiledDFA compiled;//table form of the current DFA, dropped on every change
+	private boolean frozen;
+	private long modCount;//bumped by every change
+
+	/**
+	 * Width of a cell in the transition table of toString()
+	 */
+	private static final int CELL_WIDTH = 10;
 
 	public DFA(){
 		states = new LinkedHashSet<DFAState>();
 		ordAbc = new LinkedHashSet<Character>();
+		index = new HashMap<String,DFAState>();
 	}
 
 	/* (non-Javadoc)
@@ -24,6 +44,7 @@ public class DFA implements DFAInterface{
 	 */
 	@Override
 	public void addStartState(String name){
+		changed();
 		DFAState s = checkIfExists(name);
 		if(s == null){
 			s = new DFAState(name);
@@ -33,11 +54,29 @@ public class DFA implements DFAInterface{
 		}
 		start = s;
 	}
+
+	/**
+	 * Adds the initial state, which may also be a final state
+	 * @param name is the label of the start state
+	 * @param isFinal true if the start state is also final
+	 */
+	public void addStartState(String name, boolean isFinal){
+		changed();
+		DFAState s = checkIfExists(name);
+		if(s == null){
+			s = new DFAState(name, isFinal);
+			addState(s);
+		} else {
+			System.out.println("WARNING: A state with name " + name + " already exists in the DFA");
+		}
+		start = s;
+	}
 	/* (non-Javadoc)
 	 * @see p1.DFAInterface#addState(java.lang.String)
 	 */
 	@Override
 	public void addState(String name){
+		changed();
 		DFAState s = checkIfExists(name);
 		if( s == null){
 			s = new DFAState(name);
@@ -52,6 +91,7 @@ public class DFA implements DFAInterface{
 	 */
 	@Override
 	public void addFinalState(String name){
+		changed();
 		DFAState s = checkIfExists(name);
 		if( s == null){
 			s = new DFAState(name, true);
@@ -62,7 +102,9 @@ public class DFA implements DFAInterface{
 	}
 
 	private void addState(DFAState s){
+		s.owner = this;
 		states.add(s);
+		index.put(s.getName(), s);
 	}
 
 	/* (non-Javadoc)
@@ -70,15 +112,9 @@ public class DFA implements DFAInterface{
 	 */
 	@Override
 	public void addTransition(String fromState, char onSymb, String toState){
-		DFAState from = checkIfExists(fromState);
-		DFAState to = checkIfExists(toState);
-		if(from == null){
-			System.err.println("ERROR: No DFA state exists with name " + fromState);
-			System.exit(2);
-		} else if (to == null){
-			System.err.println("ERROR: No DFA state exists with name " + toState);
-			System.exit(2);
-		}
+		changed();
+		DFAState from = existing(fromState);
+		DFAState to = existing(toState);
 		from.addTransition(onSymb, to);
 		
 		if(!ordAbc.contains(onSymb)){
@@ -86,20 +122,74 @@ public class DFA implements DFAInterface{
 		}
 	}
 
+	/**
+	 * Adds many transitions at once. All state names are resolved
+	 * before the first transition is added.
+	 * @param fromStates the labels of the states where the transitions start
+	 * @param onSymbs the symbols of the transitions
+	 * @param toStates the labels of the states where the transitions end
+	 * @throws IllegalArgumentException if a state does not exist, in which
+	 * case no transition is added
+	 */
+	public void addTransitions(String[] fromStates, char[] onSymbs, String[] toStates){
+		changed();
+		if(fromStates.length != onSymbs.length || fromStates.length != toStates.length){
+			throw new IllegalArgumentException("transition arrays differ in length");
+		}
+		DFAState[] from = new DFAState[fromStates.length];
+		DFAState[] to = new DFAState[toStates.length];
+		for(int i = 0; i < from.length; i++){
+			from[i] = existing(fromStates[i]);
+			to[i] = existing(toStates[i]);
+		}
+		for(int i = 0; i < from.length; i++){
+			from[i].addTransition(onSymbs[i], to[i]);
+			ordAbc.add(onSymbs[i]);
+		}
+	}
+
+	/**
+	 * Called before every change, also by a state that gets a transition:
+	 * drops the compiled form and with it the kinds of the states, and
+	 * refuses changes once the DFA is frozen
+	 */
+	void changed(){
+		if(frozen){
+			throw new IllegalStateException("the DFA is frozen");
+		}
+		compiled = null;
+		modCount++;
+	}
+
+	/**
+	 * @return a counter that changes whenever the DFA or one of its states
+	 * is changed, so a cached DFA can tell if it is still as it was built
+	 */
+	public long getModCount(){
+		return modCount;
+	}
+
 	/**
 	 * Check if a state with such name already exists
 	 * @param name
 	 * @return null if no state exist, or DFAState object otherwise.
 	 */
 	private DFAState checkIfExists(String name){
-		DFAState ret = null;
-		for(DFAState s : states){
-			if(s.getName().equals(name)){
-				ret = s;
-				break;
-			}
+		return index.get(name);
+	}
+
+	/**
+	 * Looks up a state a transition refers to
+	 * @param name
+	 * @return the state
+	 * @throws IllegalArgumentException if there is no state with that name
+	 */
+	private DFAState existing(String name){
+		DFAState s = index.get(name);
+		if(s == null){
+			throw new IllegalArgumentException("No DFA state exists with name " + name);
 		}
-		return ret;
+		return s;
 	}
 
 	/** (non-Javadoc)
@@ -107,60 +197,323 @@ public class DFA implements DFAInterface{
 	 **/
 	@Override
 	public String toString(){
+		StringBuilder sb = new StringBuilder(32 * (states.size() + 4) * (ordAbc.size() + 1));
+		try {
+			writeTo(sb);
+		} catch (IOException e) {
+			//a StringBuilder does not throw
+			throw new UncheckedIOException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the five-tuple in the format of toString(), in time linear
+	 * in the size of the transition table. The output is not flushed.
+	 * @param out where the DFA is written, e.g. a StringBuilder or a
+	 * buffered Writer
+	 * @throws IOException if out throws
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		writeTuple(out, states, ordAbc, start);
+	}
 
-		String s = "Q = { ";
-		String fStates = "F = { ";
+	/**
+	 * Writes a five-tuple in the format of toString()
+	 * @param out where the DFA is written
+	 * @param states the states in output order
+	 * @param abc the alphabet in output order
+	 * @param start the start state, may be null
+	 * @throws IOException if out throws
+	 */
+	static void writeTuple(Appendable out, Iterable<? extends DFAState> states, Iterable<Character> abc,
+			DFAState start) throws IOException {
+		out.append("Q = { ");
 		for(DFAState state : states){
-			s += state.toString();
-			s +=" ";
-			if(state.isFinal()){
-				fStates +=state.toString();
-				fStates += " ";
-			}
+			out.append(state.toString()).append(' ');
 		}
-		s += "}\n";
-		fStates += "}\n";
-		s += "Sigma = { ";
-		for(char c : ordAbc){
-			s += c + " ";
+		out.append("}\n");
+		out.append("Sigma = { ");
+		for(char c : abc){
+			out.append(c).append(' ');
 		}
-		s += "}\n";
+		out.append("}\n");
 		//create transition table
-		s += "delta =\n"+String.format("%10s", "");;
-		for(char c : ordAbc){
-			s += String.format("%10s", c);
+		out.append("delta =\n");
+		pad(out, "");
+		for(char c : abc){
+			pad(out, String.valueOf(c));
 		}
-		s+="\n";
+		out.append('\n');
 		for(DFAState state : states){
-			s += String.format("%10s",state.toString());
-			for(char c : ordAbc){
-				s += String.format("%10s", state.getTo(c).toString());
+			pad(out, state.toString());
+			for(char c : abc){
+				pad(out, state.getTo(c).toString());
 			}
-			s+="\n";
+			out.append('\n');
 		}
 		//start state
-		s += "q0 = " + start + "\n";
-		s += fStates;
-		return s;
+		out.append("q0 = ").append(String.valueOf(start)).append('\n');
+		out.append("F = { ");
+		for(DFAState state : states){
+			if(state.isFinal()){
+				out.append(state.toString()).append(' ');
+			}
+		}
+		out.append("}\n");
+	}
+
+	/**
+	 * Right-aligns a table cell the way String.format("%10s", s) does
+	 */
+	private static void pad(Appendable out, String s) throws IOException {
+		for(int i = s.length(); i < CELL_WIDTH; i++){
+			out.append(' ');
+		}
+		out.append(s);
 	}
 
+	/**
+	 * Writes the DFA in a compact line based form meant for programs
+	 * rather than people. States are numbered from 0 in the order of
+	 * getStates() and symbols from 0 in the order of getABC():
+	 * <pre>
+	 * dfa 1
+	 * states n symbols k start s
+	 * sigma c0 c1 ...     (character codes)
+	 * final f0 f1 ...     (state numbers)
+	 * delta
+	 * t0 t1 ...           (one line per state, k targets, -1 if missing)
+	 * names
+	 * name                (one line per state)
+	 * </pre>
+	 * @param out where the DFA is written
+	 * @throws IOException if out throws
+	 */
+	public void writeCompact(Appendable out) throws IOException {
+		CompiledDFA table = compiled();
+		int n = table.getStateCount();
+		int k = table.getSymbolCount();
+		char[] digits = new char[11];
+		out.append("dfa 1\nstates ");
+		appendInt(out, n, digits);
+		out.append(" symbols ");
+		appendInt(out, k, digits);
+		out.append(" start ");
+		appendInt(out, table.getStartState(), digits);
+		out.append("\nsigma");
+		for(int j = 0; j < k; j++){
+			out.append(' ');
+			appendInt(out, table.getSymbol(j), digits);
+		}
+		out.append("\nfinal");
+		for(int q = 0; q < n; q++){
+			if(table.isFinal(q)){
+				out.append(' ');
+				appendInt(out, q, digits);
+			}
+		}
+		out.append("\ndelta\n");
+		for(int q = 0; q < n; q++){
+			for(int j = 0; j < k; j++){
+				if(j > 0){
+					out.append(' ');
+				}
+				appendInt(out, table.next(q, j), digits);
+			}
+			out.append('\n');
+		}
+		out.append("names\n");
+		for(int q = 0; q < n; q++){
+			out.append(table.getStateName(q)).append('\n');
+		}
+	}
+
+	/**
+	 * Appends the decimal form of v without creating a String
+	 * @param digits scratch space for at least 11 characters
+	 */
+	private static void appendInt(Appendable out, int v, char[] digits) throws IOException {
+		if(v < 0){
+			out.append('-');
+			v = -v;//state and symbol numbers are never Integer.MIN_VALUE
+		}
+		int i = digits.length;
+		do {
+			digits[--i] = (char) ('0' + v % 10);
+			v /= 10;
+		} while(v > 0);
+		for(; i < digits.length; i++){
+			out.append(digits[i]);
+		}
+	}
+
+	/**
+	 * Reading stops early once the input reaches a dead state, which
+	 * rejects it whatever follows, or an accepting sink, which accepts it.
+	 * Either way the rest is only checked for symbols outside the alphabet.
+	 * @throws IllegalArgumentException if the input has a symbol outside
+	 * the alphabet, or a symbol that a state it reaches before a dead
+	 * state or an accepting sink has no transition on
+	 */
 	@Override
 	public boolean accepts(String input) {
 		boolean ret = false;
 		char[] inputString = input.toCharArray();
 		DFAState currState = start;
+		int steps = 0;
 		//iterate over the chars
-		if(!(inputString.length==1 && inputString[0] == 'e')){
-			for(char c : inputString){
-				currState = currState.getTo(c);
+		if(!(inputString.length==1 && inputString[0] == 'e') || ordAbc.contains('e')){
+			CompiledDFA table = compiled();//marks the dead states and accepting sinks
+			//stop as soon as a dead state or an accepting sink decides the outcome
+			while(steps < inputString.length && currState.kind == CompiledDFA.LIVE){
+				currState = currState.getTo(inputString[steps++]);
+			}
+			//both early exits check the rest the same way
+			if(currState.kind != CompiledDFA.LIVE){
+				for(int i = steps; i < inputString.length; i++){
+					if(table.symbolOf(inputString[i]) < 0){
+						currState.getTo(inputString[i]);//throws like any other state would
+					}
+				}
 			}
 		}
 		if(currState.isFinal()){
 			ret = true;
 		} 
+		Metrics.get().match(steps, ret, currState.kind == CompiledDFA.DEAD);
+		if(steps < inputString.length && currState.kind != CompiledDFA.LIVE){
+			Metrics.get().shortCircuit(inputString.length - steps);
+		}
 		return ret;
 	}
 
+	/**
+	 * Builds the table driven form of this DFA for fast matching.
+	 * Later changes to this DFA are not reflected in the result.
+	 * @return the compiled DFA
+	 */
+	public CompiledDFA compile(){
+		return new CompiledDFA(this);
+	}
+
+	/**
+	 * Creates a session that matches an input fed to it in chunks.
+	 * Later changes to this DFA are not reflected in the session.
+	 * @return a new session at the start state
+	 */
+	public MatcherSession newSession(){
+		return compiled().newSession();
+	}
+
+	/**
+	 * Saves the DFA as a binary image that DFAImage.map loads again
+	 * without rebuilding any states. Minimize the DFA first to keep the
+	 * image small.
+	 * @param file where the image is written
+	 * @param withNames true to store the state names as well
+	 * @throws IOException
+	 */
+	public void save(Path file, boolean withNames) throws IOException {
+		DFAImage.write(compiled(), file, withNames);
+	}
+
+	/**
+	 * Makes this DFA read-only so that it can be shared between threads.
+	 * Any later attempt to change it throws an IllegalStateException.
+	 * @return the compiled form of the frozen DFA
+	 */
+	public CompiledDFA freeze(){
+		if(!frozen){
+			for(DFAState s : states){
+				s.freeze();
+			}
+			states = Collections.unmodifiableSet(states);
+			ordAbc = Collections.unmodifiableSet(ordAbc);
+			frozen = true;
+		}
+		return compiled();
+	}
+
+	/**
+	 * @return true if the DFA can no longer be changed
+	 */
+	public boolean isFrozen(){
+		return frozen;
+	}
+
+	/**
+	 * Tests many strings at once, in parallel on the common fork-join pool
+	 * @param inputs the strings to test
+	 * @return a bitset with bit i set if inputs.get(i) is accepted
+	 */
+	public BitSet acceptsAll(List<? extends CharSequence> inputs){
+		return compiled().acceptsAll(inputs);
+	}
+
+	/**
+	 * @return the compiled form of the DFA, compiled again after changes
+	 */
+	CompiledDFA compiled(){
+		CompiledDFA ret = compiled;
+		if(ret == null){
+			ret = compile();
+			int id = 0;
+			for(DFAState s : states){
+				s.kind = ret.kindOf(id++);
+			}
+			compiled = ret;
+		}
+		return ret;
+	}
+
+	/**
+	 * Minimizes this DFA in place using Hopcroft's partition refinement.
+	 * States that cannot be reached from the start state are removed and
+	 * every group of equivalent states is merged into the first of them
+	 * in state order, which keeps its name and position.
+	 * @return the number of states removed
+	 */
+	public int minimize(){
+		if(start == null){
+			return 0;
+		}
+		changed();
+		CompiledDFA table = compile();
+		Minimizer min = new Minimizer(table);
+		int n = table.getStateCount();
+		int k = table.getSymbolCount();
+		DFAState[] merged = new DFAState[min.blockCount()];
+		boolean[] kept = new boolean[n];
+
+		states = new LinkedHashSet<DFAState>();
+		index = new HashMap<String,DFAState>();
+		for(int q = 0; q < n; q++){
+			int b = min.blockOf(q);
+			if(b >= 0 && merged[b] == null){
+				merged[b] = new DFAState(table.getStateName(q), table.isFinal(q));
+				addState(merged[b]);
+				kept[q] = true;
+			}
+		}
+		for(int q = 0; q < n; q++){
+			if(!kept[q]){
+				continue;
+			}
+			DFAState from = merged[min.blockOf(q)];
+			for(int j = 0; j < k; j++){
+				int t = table.next(q, j);
+				DFAState to = t >= 0 ? merged[min.blockOf(t)]
+						: min.sinkBlock() >= 0 ? merged[min.sinkBlock()] : null;
+				if(to != null){
+					from.addTransition(table.getSymbol(j), to);
+				}
+			}
+		}
+		start = merged[min.blockOf(table.getStartState())];
+		return n - states.size();
+	}
+
 	@Override
 	public Set<DFAState> getStates() {
 		return states;
@@ -0,0 +1,378 @@
+package fa.dfa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import fa.metrics.Metrics;
+
+/**
+ * A compiled DFA stored in a flat, versioned binary layout, usually
+ * read straight from a memory-mapped file. Loading an image only checks
+ * the header and builds the character to symbol table; the transitions,
+ * final states and names are read from the buffer when they are used, so
+ * no object is created per state.
+ *
+ * All numbers are little endian, every section starts on an 8 byte
+ * boundary:
+ * <pre>
+ * header  (32 bytes)
+ *   int   magic "DFA1"
+ *   short version
+ *   short flags, bit 0 set if the names section is present
+ *   int   states n
+ *   int   symbols k
+ *   int   start state, -1 if none
+ *   int   length of the name bytes
+ *   long  length of the whole image
+ * alphabet  k chars
+ * classes   int c, then k ints, the symbol class of every symbol
+ * delta     n * c ints, state * c + class -> state, -1 if missing
+ * finals    (n + 63) / 64 longs, bit q set if q is final
+ * names     n + 1 int offsets into the name bytes, then the UTF-8 name bytes
+ * </pre>
+ * Version 1 images have no classes section, every symbol is its own
+ * class there. They are still read.
+ *
+ * An image is read-only and can be shared by any number of threads.
+ */
+public final class DFAImage implements TransitionTable {
+
+	static final int MAGIC = 0x31414644;//"DFA1" read as a little endian int
+	static final short VERSION = 2;
+	static final short FLAG_NAMES = 1;
+	static final int HEADER = 32;
+
+	private final ByteBuffer buf;
+	private final int n;
+	private final int k;
+	private final int start;
+	private final char[] alphabet;
+	private final int[] symbolOf;//character -> symbol id, -1 if not in the alphabet
+	private final int[] classOf;//symbol id -> class
+	private final int[] classOfChar;//character -> class, -1 if not in the alphabet
+	private final int classes;
+	private final int deltaAt;
+	private final int finalsAt;
+	private final int offsetsAt;//-1 if there are no names
+	private final int namesAt;
+
+	private DFAImage(ByteBuffer buf){
+		this.buf = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+		int size = this.buf.capacity();
+		if(size < HEADER || this.buf.getInt(0) != MAGIC){
+			throw new IllegalArgumentException("not a DFA image");
+		}
+		short version = this.buf.getShort(4);
+		if(version != 1 && version != VERSION){
+			throw new IllegalArgumentException("unsupported DFA image version " + version);
+		}
+		boolean names = (this.buf.getShort(6) & FLAG_NAMES) != 0;
+		n = this.buf.getInt(8);
+		k = this.buf.getInt(12);
+		start = this.buf.getInt(16);
+		int nameBytes = this.buf.getInt(20);
+		long length = this.buf.getLong(24);
+		if(n < 0 || k < 0 || nameBytes < 0 || start < -1 || start >= n){
+			throw new IllegalArgumentException("corrupt DFA image header");
+		}
+		int classesAt = HEADER + (int) align(2L * k);
+		if(version == 1){
+			classes = k;
+		}else if(size < classesAt + 4 || (classes = this.buf.getInt(classesAt)) < 0 || classes > k){
+			throw new IllegalArgumentException("corrupt DFA image classes");
+		}
+		long expected = imageSize(version, n, k, classes, names, nameBytes);
+		if(length != expected || size < expected){
+			throw new IllegalArgumentException("DFA image is " + size + " bytes, expected " + expected);
+		}
+		deltaAt = version == 1 ? classesAt : classesAt + (int) align(4L * (k + 1));
+		finalsAt = deltaAt + (int) align(4L * n * classes);
+		offsetsAt = names ? finalsAt + 8 * ((n + 63) >>> 6) : -1;
+		namesAt = names ? offsetsAt + (int) align(4L * (n + 1)) : -1;
+
+		alphabet = new char[k];
+		int max = -1;
+		for(int j = 0; j < k; j++){
+			alphabet[j] = this.buf.getChar(HEADER + 2 * j);
+			max = Math.max(max, alphabet[j]);
+		}
+		symbolOf = new int[max + 1];
+		classOf = new int[k];
+		classOfChar = new int[max + 1];
+		Arrays.fill(symbolOf, -1);
+		Arrays.fill(classOfChar, -1);
+		for(int j = 0; j < k; j++){
+			symbolOf[alphabet[j]] = j;
+			classOf[j] = version == 1 ? j : this.buf.getInt(classesAt + 4 * (j + 1));
+			if(classOf[j] < 0 || classOf[j] >= classes){
+				throw new IllegalArgumentException("corrupt DFA image classes");
+			}
+			classOfChar[alphabet[j]] = classOf[j];
+		}
+	}
+
+	/**
+	 * Maps an image file read-only. The file must not be changed while
+	 * the image is in use.
+	 * @param file a file written by write
+	 * @return the image
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalArgumentException if the file is not a valid image
+	 */
+	public static DFAImage map(Path file) throws IOException {
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)){
+			if(ch.size() > Integer.MAX_VALUE){
+				throw new IllegalArgumentException(file + " is too large for a DFA image");
+			}
+			return new DFAImage(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+		}
+	}
+
+	/**
+	 * Uses an image that is already in memory, from its position on.
+	 * The buffer must not be changed while the image is in use.
+	 * @param buf the image bytes
+	 * @return the image
+	 * @throws IllegalArgumentException if the bytes are not a valid image
+	 */
+	public static DFAImage wrap(ByteBuffer buf){
+		return new DFAImage(buf);
+	}
+
+	/**
+	 * Writes the image of a compiled DFA to a file, replacing it
+	 * @param dfa the DFA
+	 * @param file where the image is written
+	 * @param withNames true to store the state names as well
+	 * @throws IOException
+	 */
+	public static void write(CompiledDFA dfa, Path file, boolean withNames) throws IOException {
+		ByteBuffer img = encode(dfa, withNames, false);
+		try(FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+			while(img.hasRemaining()){
+				ch.write(img);
+			}
+		}
+	}
+
+	/**
+	 * Lays out a compiled DFA in the image format
+	 * @param dfa the DFA
+	 * @param withNames true to store the state names as well
+	 * @param direct true to allocate the image outside the Java heap
+	 * @return a buffer holding exactly the image, positioned at 0
+	 */
+	static ByteBuffer encode(CompiledDFA dfa, boolean withNames, boolean direct){
+		int n = dfa.getStateCount();
+		int k = dfa.getSymbolCount();
+		int c = dfa.getClassCount();
+		byte[][] names = null;
+		int nameBytes = 0;
+		if(withNames){
+			names = new byte[n][];
+			for(int q = 0; q < n; q++){
+				names[q] = dfa.getStateName(q).getBytes(StandardCharsets.UTF_8);
+				nameBytes += names[q].length;
+			}
+		}
+		long size = imageSize(VERSION, n, k, c, withNames, nameBytes);
+		if(size > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("the DFA is too large for an image: " + size + " bytes");
+		}
+		ByteBuffer img = (direct ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		img.putInt(MAGIC).putShort(VERSION).putShort(withNames ? FLAG_NAMES : 0)
+			.putInt(n).putInt(k).putInt(dfa.getStartState()).putInt(nameBytes).putLong(size);
+		for(int j = 0; j < k; j++){
+			img.putChar(dfa.getSymbol(j));
+		}
+		img.position(HEADER + (int) align(2L * k));
+		img.putInt(c);
+		for(int j = 0; j < k; j++){
+			img.putInt(dfa.classOf(j));
+		}
+		img.position(HEADER + (int) align(2L * k) + (int) align(4L * (k + 1)));
+		for(int q = 0; q < n; q++){
+			for(int j = 0; j < c; j++){
+				img.putInt(dfa.nextByClass(q, j));
+			}
+		}
+		img.position(img.position() + (int) (align(4L * n * c) - 4L * n * c));
+		for(int w = 0; w < (n + 63) >>> 6; w++){
+			long word = 0;
+			for(int q = w << 6; q < Math.min(n, (w + 1) << 6); q++){
+				if(dfa.isFinal(q)){
+					word |= 1L << q;
+				}
+			}
+			img.putLong(word);
+		}
+		if(withNames){
+			int namesAt = img.position() + (int) align(4L * (n + 1));
+			int off = 0;
+			for(int q = 0; q < n; q++){
+				img.putInt(off);
+				off += names[q].length;
+			}
+			img.putInt(off);
+			img.position(namesAt);
+			for(int q = 0; q < n; q++){
+				img.put(names[q]);
+			}
+		}
+		img.clear();
+		return img;
+	}
+
+	/**
+	 * @return the number of bytes of an image with the given contents
+	 */
+	private static long imageSize(int version, int n, int k, int c, boolean names, int nameBytes){
+		long size = HEADER + align(2L * k) + align(4L * n * c) + 8L * ((n + 63) >>> 6);
+		if(version > 1){
+			size += align(4L * (k + 1));
+		}
+		if(names){
+			size += align(4L * (n + 1)) + align(nameBytes);
+		}
+		return size;
+	}
+
+	private static long align(long bytes){
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * Simulates the DFA on a character sequence. As in DFA.accepts the
+	 * single character "e" stands for the empty string unless e is in the
+	 * alphabet. Characters outside the alphabet reject the input.
+	 * @param s the input
+	 * @return true if s is in the language of the DFA
+	 */
+	public boolean accepts(CharSequence s){
+		int len = s.length();
+		if(len == 1 && s.charAt(0) == 'e' && symbolOf('e') < 0){
+			boolean ret = isFinal(start);
+			Metrics.get().match(0, ret, false);
+			return ret;
+		}
+		int st = start;
+		int i;
+		for(i = 0; i < len && st >= 0; i++){
+			int c = s.charAt(i);
+			int cls = c < classOfChar.length ? classOfChar[c] : -1;
+			st = cls < 0 ? -1 : buf.getInt(deltaAt + 4 * (st * classes + cls));
+		}
+		boolean ret = isFinal(st);
+		Metrics.get().match(i, ret, st < 0);
+		return ret;
+	}
+
+	/**
+	 * @return the number of states
+	 */
+	public int getStateCount(){
+		return n;
+	}
+
+	/**
+	 * @return the number of alphabet symbols
+	 */
+	public int getSymbolCount(){
+		return k;
+	}
+
+	/**
+	 * @param c a character
+	 * @return the symbol id of c or -1 if c is not in the alphabet
+	 */
+	public int symbolOf(char c){
+		return c < symbolOf.length ? symbolOf[c] : -1;
+	}
+
+	/**
+	 * @param symbol a symbol id
+	 * @return the character of the symbol
+	 */
+	public char getSymbol(int symbol){
+		return alphabet[symbol];
+	}
+
+	/**
+	 * @return the id of the start state, -1 if the DFA has none
+	 */
+	public int getStartState(){
+		return start;
+	}
+
+	/**
+	 * Uses the transition table
+	 * @param state the source state id
+	 * @param symbol the symbol id
+	 * @return the target state id or -1 if there is no transition
+	 */
+	public int next(int state, int symbol){
+		return buf.getInt(deltaAt + 4 * (state * classes + classOf[symbol]));
+	}
+
+	/**
+	 * @param state a state id, may be -1
+	 * @return true if state is a final state
+	 */
+	public boolean isFinal(int state){
+		return state >= 0 && (buf.getLong(finalsAt + 8 * (state >>> 6)) & (1L << state)) != 0;
+	}
+
+	/**
+	 * @return true if the image stores the state names
+	 */
+	public boolean hasNames(){
+		return offsetsAt >= 0;
+	}
+
+	/**
+	 * Decodes the name of a state, a new String on every call
+	 * @param state a state id
+	 * @return the name of the state or null if the image has no names
+	 */
+	public String getStateName(int state){
+		if(offsetsAt < 0){
+			return null;
+		}
+		int from = buf.getInt(offsetsAt + 4 * state);
+		int to = buf.getInt(offsetsAt + 4 * (state + 1));
+		byte[] name = new byte[to - from];
+		buf.get(namesAt + from, name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return true if the image lives outside the Java heap, in a
+	 * mapping or a direct buffer
+	 */
+	boolean isDirect(){
+		return buf.isDirect();
+	}
+
+	/**
+	 * @return a rough count of the heap bytes used by this object, the
+	 * image included if it is not direct
+	 */
+	long heapBytes(){
+		return 64L + 8L * symbolOf.length + 6L * alphabet.length + (buf.isDirect() ? 0 : buf.capacity());
+	}
+
+	/**
+	 * @return the size of the image in bytes
+	 */
+	public int byteSize(){
+		return (int) buf.getLong(24);
+	}
+}
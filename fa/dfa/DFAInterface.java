@@ -40,4 +40,96 @@ public interface DFAInterface extends FAInterface{
 	 */
 	public abstract State getToState(DFAState from, char onSymb);
 
+	/**
+	 * Builds the DFA of the strings that this DFA and another both accept.
+	 * Only the pairs of states reachable from the pair of start states are
+	 * built.
+	 * @param other the other DFA
+	 * @return a new complete DFA over the union of both alphabets
+	 */
+	public default DFA intersection(DFAInterface other){
+		return new Product(this, other, Product.AND).build();
+	}
+
+	/**
+	 * Builds the DFA of the strings that this DFA or another accepts
+	 * @param other the other DFA
+	 * @return a new complete DFA over the union of both alphabets
+	 */
+	public default DFA union(DFAInterface other){
+		return new Product(this, other, Product.OR).build();
+	}
+
+	/**
+	 * Builds the DFA of the strings that this DFA accepts and another
+	 * does not
+	 * @param other the other DFA
+	 * @return a new complete DFA over the union of both alphabets
+	 */
+	public default DFA difference(DFAInterface other){
+		return new Product(this, other, Product.MINUS).build();
+	}
+
+	/**
+	 * Builds the DFA of the strings over the alphabet of this DFA that it
+	 * does not accept. Missing transitions go to a new accepting sink.
+	 * @return a new complete DFA over the same alphabet
+	 */
+	public default DFA complement(){
+		return new Product(this, null, Product.NOT).build();
+	}
+
+	/**
+	 * @return a shortest string this DFA accepts, "" for the empty
+	 * string, or null if it accepts none
+	 */
+	public default String shortestAccepted(){
+		return new Product(this, null, Product.OR).witness();
+	}
+
+	/**
+	 * @return true if this DFA accepts no string at all
+	 */
+	public default boolean isEmpty(){
+		return shortestAccepted() == null;
+	}
+
+	/**
+	 * Searches the pairs of states of this DFA and another for a string
+	 * only this DFA accepts, stopping at the first one found
+	 * @param other the other DFA
+	 * @return a shortest string this DFA accepts and other does not, or
+	 * null if there is none
+	 */
+	public default String subsetCounterexample(DFAInterface other){
+		return new Product(this, other, Product.MINUS).witness();
+	}
+
+	/**
+	 * @param other the other DFA
+	 * @return true if other accepts every string this DFA accepts
+	 */
+	public default boolean isSubsetOf(DFAInterface other){
+		return subsetCounterexample(other) == null;
+	}
+
+	/**
+	 * Compares the languages of this DFA and another with Hopcroft and
+	 * Karp's union-find check, stopping at the first difference
+	 * @param other the other DFA
+	 * @return a string accepted by exactly one of the two DFAs, or null if
+	 * they accept the same strings
+	 */
+	public default String distinguishingString(DFAInterface other){
+		return new Product(this, other, Product.AND).distinguishing();
+	}
+
+	/**
+	 * @param other the other DFA
+	 * @return true if both DFAs accept the same strings
+	 */
+	public default boolean equivalent(DFAInterface other){
+		return distinguishingString(other) == null;
+	}
+
 }
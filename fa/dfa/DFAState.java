@@ -1,6 +1,6 @@
 package fa.dfa;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 import fa.State;
 
@@ -15,8 +15,17 @@ import fa.State;
 public class DFAState extends State{
 	
 
-	private HashMap<Character,DFAState> delta;//delta
+	private static final char[] NO_SYMBOLS = new char[0];
+	private static final DFAState[] NO_TARGETS = new DFAState[0];
+
+	//delta: symbols[0..size) sorted, targets[i] is the state reached on symbols[i]
+	private char[] symbols = NO_SYMBOLS;
+	private DFAState[] targets = NO_TARGETS;
+	private int size;
 	private boolean isFinal;//remembers its type
+	private boolean frozen;//set once the owning DFA is frozen
+	byte kind;//CompiledDFA.LIVE, DEAD or SINK, as of the owning DFA's last compiled form
+	DFA owner;//the DFA it was added to, told about every change, null if none
 	
 	/**
 	 * Default constructor
@@ -39,7 +48,6 @@ public class DFAState extends State{
 	
 	private void initDefault(String name ){
 		this.name = name;
-		delta = new HashMap<Character, DFAState>();
 	}
 	
 	/**
@@ -52,12 +60,41 @@ public class DFAState extends State{
 	
 
 	/**
-	 * Add the transition from <code> this </code> object
+	 * Add the transition from <code> this </code> object. The DFA that
+	 * the state belongs to counts it as a change of its own.
 	 * @param onSymb the alphabet symbol
 	 * @param toState to DFA state
 	 */
 	public void addTransition(char onSymb, DFAState toState){
-		delta.put(onSymb, toState);
+		if(frozen){
+			throw new IllegalStateException("the state " + name + " belongs to a frozen DFA");
+		}
+		if(owner != null){
+			owner.changed();
+		}
+		int i = Arrays.binarySearch(symbols, 0, size, onSymb);
+		if(i >= 0){
+			targets[i] = toState;
+			return;
+		}
+		i = -i - 1;
+		if(size == symbols.length){
+			int cap = Math.max(2, size * 2);
+			symbols = Arrays.copyOf(symbols, cap);
+			targets = Arrays.copyOf(targets, cap);
+		}
+		System.arraycopy(symbols, i, symbols, i + 1, size - i);
+		System.arraycopy(targets, i, targets, i + 1, size - i);
+		symbols[i] = onSymb;
+		targets[i] = toState;
+		size++;
+	}
+
+	/**
+	 * Refuses any further transitions
+	 */
+	void freeze(){
+		frozen = true;
 	}
 	
 	/**
@@ -65,14 +102,25 @@ public class DFAState extends State{
 	 * on the given symbol
 	 * @param symb - the alphabet symbol
 	 * @return the new state 
+	 * @throws IllegalArgumentException if there is no transition on symb
 	 */
 	public DFAState getTo(char symb){
-		DFAState ret = delta.get(symb);
+		DFAState ret = peekTo(symb);
 		if(ret == null){
-			 System.err.println("ERROR: DFAState.getTo(char symb) returns null on " + symb + " from " + name);
-			 System.exit(2);
-			}
-		return delta.get(symb);
+			throw new IllegalArgumentException("DFAState.getTo(char symb) returns null on " + symb + " from " + name);
+		}
+		return ret;
+	}
+
+	/**
+	 * Retrieves the state that <code>this</code> transitions to
+	 * without reporting a missing transition
+	 * @param symb - the alphabet symbol
+	 * @return the new state or null if there is no transition on symb
+	 */
+	DFAState peekTo(char symb){
+		int i = Arrays.binarySearch(symbols, 0, size, symb);
+		return i < 0 ? null : targets[i];
 	}
 	
 	
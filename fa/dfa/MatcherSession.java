@@ -0,0 +1,244 @@
+package fa.dfa;
+
+import java.nio.ByteBuffer;
+
+import fa.metrics.AutomatonMetrics;
+import fa.metrics.Metrics;
+
+/**
+ * Matches one input at a time that arrives in chunks, in constant memory.
+ * Feed the chunks of an input in order, ask isAccepting() whenever the
+ * answer is needed, and reset() before the next input. A session only
+ * keeps the current state, so it allocates nothing after it is created
+ * and can be reused for any number of inputs; a Pool hands sessions out
+ * to threads and takes them back.
+ *
+ * The input is read literally: unlike accepts, a single "e" is not read
+ * as the empty string. Characters outside the alphabet reject the input.
+ * Once a dead state is reached the rest of the input is skipped; after an
+ * accepting sink it is only checked for characters outside the alphabet.
+ * Each finished input is reported to the metrics when the session is reset
+ * or closed.
+ *
+ * A session must not be used by more than one thread at a time.
+ */
+public final class MatcherSession implements AutoCloseable {
+
+	private final CompiledDFA table;
+	private final Pool pool;//the pool the session returns to on close, or null
+	private boolean idle;//true while the session waits in its pool
+	private int state;//a state, -1 after a missing transition, or a marker of CompiledDFA.run
+	private long length;//characters fed since the last reset
+	private long steps;//characters run through the table
+
+	MatcherSession(CompiledDFA table, Pool pool){
+		this.table = table;
+		this.pool = pool;
+		this.state = table.runStart;
+	}
+
+	/**
+	 * Feeds the next chunk of the input
+	 * @param chunk the characters
+	 * @return this session
+	 */
+	public MatcherSession feed(CharSequence chunk){
+		return feed(chunk, 0, chunk.length());
+	}
+
+	/**
+	 * Feeds part of a character sequence as the next chunk of the input
+	 * @param chunk the characters
+	 * @param from the index of the first character
+	 * @param to the index after the last character
+	 * @return this session
+	 */
+	public MatcherSession feed(CharSequence chunk, int from, int to){
+		int[] classOfChar = table.classOfChar;
+		int[] run = table.run;
+		int k = table.classes;
+		int st = state;
+		int i;
+		for(i = from; i < to && st >= 0; i++){
+			int c = chunk.charAt(i);
+			int cls = c < classOfChar.length ? classOfChar[c] : -1;
+			st = cls < 0 ? -1 : run[st * k + cls];
+		}
+		steps += i - from;
+		for(; i < to && st == CompiledDFA.TO_SINK; i++){
+			if(table.symbolOf(chunk.charAt(i)) < 0){
+				st = -1;
+			}
+		}
+		state = st;
+		length += to - from;
+		return this;
+	}
+
+	/**
+	 * Feeds part of a character array as the next chunk of the input
+	 * @param chunk the characters
+	 * @param off the index of the first character
+	 * @param len the number of characters
+	 * @return this session
+	 */
+	public MatcherSession feed(char[] chunk, int off, int len){
+		int[] classOfChar = table.classOfChar;
+		int[] run = table.run;
+		int k = table.classes;
+		int st = state;
+		int i;
+		for(i = off; i < off + len && st >= 0; i++){
+			int c = chunk[i];
+			int cls = c < classOfChar.length ? classOfChar[c] : -1;
+			st = cls < 0 ? -1 : run[st * k + cls];
+		}
+		steps += i - off;
+		for(; i < off + len && st == CompiledDFA.TO_SINK; i++){
+			if(table.symbolOf(chunk[i]) < 0){
+				st = -1;
+			}
+		}
+		state = st;
+		length += len;
+		return this;
+	}
+
+	/**
+	 * Feeds the remaining bytes of a buffer as the next chunk of the
+	 * input, each byte read as an ISO-8859-1 character. The position of
+	 * the buffer is moved to its limit.
+	 * @param chunk the bytes
+	 * @return this session
+	 */
+	public MatcherSession feed(ByteBuffer chunk){
+		int from = chunk.position();
+		int to = chunk.limit();
+		int[] classOfChar = table.classOfChar;
+		int[] run = table.run;
+		int k = table.classes;
+		int st = state;
+		int i;
+		for(i = from; i < to && st >= 0; i++){
+			int c = chunk.get(i) & 0xFF;
+			int cls = c < classOfChar.length ? classOfChar[c] : -1;
+			st = cls < 0 ? -1 : run[st * k + cls];
+		}
+		steps += i - from;
+		for(; i < to && st == CompiledDFA.TO_SINK && !table.allBytes; i++){
+			if(table.symbolOf((char) (chunk.get(i) & 0xFF)) < 0){
+				st = -1;
+			}
+		}
+		state = st;
+		length += to - from;
+		chunk.position(to);
+		return this;
+	}
+
+	/**
+	 * @return true if the input fed so far is accepted
+	 */
+	public boolean isAccepting(){
+		return state == CompiledDFA.TO_SINK || table.isFinal(state);
+	}
+
+	/**
+	 * @return true if no continuation of the input fed so far can be
+	 * accepted, so the rest of it need not be fed
+	 */
+	public boolean isDead(){
+		return state == -1 || state == CompiledDFA.TO_DEAD;
+	}
+
+	/**
+	 * @return the number of characters fed since the last reset
+	 */
+	public long getLength(){
+		return length;
+	}
+
+	/**
+	 * Ends the current input and goes back to the start state for the next
+	 * one
+	 * @return this session
+	 */
+	public MatcherSession reset(){
+		if(length > 0){
+			AutomatonMetrics metrics = Metrics.get();
+			metrics.match((int) Math.min(steps, Integer.MAX_VALUE), isAccepting(), isDead());
+			if(steps < length){
+				metrics.shortCircuit((int) Math.min(length - steps, Integer.MAX_VALUE));
+			}
+		}
+		state = table.runStart;
+		length = 0;
+		steps = 0;
+		return this;
+	}
+
+	/**
+	 * Resets the session and returns it to the pool it came from, if any.
+	 * The session must not be used after it was returned.
+	 */
+	@Override
+	public void close(){
+		if(!idle){
+			reset();
+			if(pool != null){
+				pool.release(this);
+			}
+		}
+	}
+
+	/**
+	 * Keeps up to a fixed number of idle sessions of one DFA so that
+	 * threads matching one input after another do not create a session
+	 * per input. Taking and returning a session does not allocate.
+	 */
+	public static final class Pool {
+		private final CompiledDFA table;
+		private final MatcherSession[] free;
+		private int size;
+
+		/**
+		 * @param table the DFA the sessions match against
+		 * @param capacity the most idle sessions kept
+		 */
+		public Pool(CompiledDFA table, int capacity){
+			this.table = table;
+			this.free = new MatcherSession[capacity];
+		}
+
+		/**
+		 * Takes an idle session or creates one if none is left. Close the
+		 * session to return it.
+		 * @return a session at the start state
+		 */
+		public MatcherSession acquire(){
+			synchronized(this){
+				if(size > 0){
+					MatcherSession s = free[--size];
+					free[size] = null;
+					s.idle = false;
+					return s;
+				}
+			}
+			return new MatcherSession(table, this);
+		}
+
+		private synchronized void release(MatcherSession s){
+			if(size < free.length){
+				s.idle = true;
+				free[size++] = s;
+			}
+		}
+
+		/**
+		 * @return the number of idle sessions
+		 */
+		public synchronized int getIdleCount(){
+			return size;
+		}
+	}
+}
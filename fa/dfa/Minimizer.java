@@ -0,0 +1,235 @@
+package fa.dfa;
+
+import java.util.Arrays;
+
+/**
+ * Hopcroft style partition refinement used by DFA.minimize().
+ * This is the transition partitioning variant of Valmari and Lehtinen:
+ * besides the partition of the states into blocks, the transitions are
+ * partitioned into cords (same label, target in the same block) and the
+ * two partitions refine each other until neither changes. The run time is
+ * O(m log n) for n states and m transitions.
+ *
+ * States that cannot be reached from the start state are dropped first.
+ * A missing transition is treated as a transition to an extra non-final
+ * sink, so incomplete DFAs are minimized correctly as well. Labels are
+ * the symbol classes of the compiled table, symbols that share a class
+ * always agree and need no separate cords.
+ */
+final class Minimizer {
+
+	private final int[] blockOf;//original state id -> block, -1 if unreachable
+	private final int blocks;
+	private final int sinkBlock;//block of the extra sink, -1 if none was needed
+
+	Minimizer(CompiledDFA dfa){
+		int n = dfa.getStateCount();
+		int k = dfa.getClassCount();
+		blockOf = new int[n];
+		Arrays.fill(blockOf, -1);
+		if(dfa.getStartState() < 0){
+			blocks = 0;
+			sinkBlock = -1;
+			return;
+		}
+
+		//keep the reachable states only, the extra sink gets the id n
+		boolean incomplete = false;
+		int[] local = new int[n + 1];
+		Arrays.fill(local, -1);
+		int[] queue = new int[n + 1];
+		int r = 0;
+		queue[r++] = dfa.getStartState();
+		local[dfa.getStartState()] = 0;
+		for(int head = 0; head < r; head++){
+			int q = queue[head];
+			if(q == n){
+				continue;
+			}
+			for(int a = 0; a < k; a++){
+				int t = dfa.nextByClass(q, a);
+				if(t < 0){
+					incomplete = true;
+					t = n;
+				}
+				if(local[t] < 0){
+					local[t] = r;
+					queue[r++] = t;
+				}
+			}
+		}
+
+		//transitions of the reachable states, numbered q * k + a
+		int m = r * k;
+		int[] tail = new int[m];
+		int[] head = new int[m];
+		for(int q = 0; q < r; q++){
+			int orig = queue[q];
+			for(int a = 0; a < k; a++){
+				int t = orig == n ? n : dfa.nextByClass(orig, a);
+				tail[q * k + a] = q;
+				head[q * k + a] = local[t < 0 ? n : t];
+			}
+		}
+		//incoming transitions of every state
+		int[] inFirst = new int[r + 1];
+		for(int t = 0; t < m; t++){
+			inFirst[head[t] + 1]++;
+		}
+		for(int q = 0; q < r; q++){
+			inFirst[q + 1] += inFirst[q];
+		}
+		int[] in = new int[m];
+		int[] fill = Arrays.copyOf(inFirst, r);
+		for(int t = 0; t < m; t++){
+			in[fill[head[t]]++] = t;
+		}
+
+		//initial partition: final and non-final states
+		Partition states = new Partition(r, 1);
+		for(int q = 0; q < r; q++){
+			if(queue[q] != n && dfa.isFinal(queue[q])){
+				states.mark(q);
+			}
+		}
+		states.split();
+
+		//initial cords: one per label
+		Partition cords = new Partition(m, Math.max(k, 1));
+		for(int a = 0, i = 0; a < k; a++){
+			cords.first[a] = i;
+			for(int q = 0; q < r; q++){
+				int t = q * k + a;
+				cords.elems[i] = t;
+				cords.loc[t] = i++;
+				cords.setOf[t] = a;
+			}
+			cords.past[a] = i;
+		}
+		cords.count = m == 0 ? 0 : k;
+
+		int b = 1;
+		for(int c = 0; c < cords.count; c++){
+			for(int i = cords.first[c]; i < cords.past[c]; i++){
+				states.mark(tail[cords.elems[i]]);
+			}
+			states.split();
+			for(; b < states.count; b++){
+				for(int i = states.first[b]; i < states.past[b]; i++){
+					int q = states.elems[i];
+					for(int j = inFirst[q]; j < inFirst[q + 1]; j++){
+						cords.mark(in[j]);
+					}
+				}
+				cords.split();
+			}
+		}
+
+		blocks = states.count;
+		for(int q = 0; q < r; q++){
+			if(queue[q] != n){
+				blockOf[queue[q]] = states.setOf[q];
+			}
+		}
+		sinkBlock = incomplete ? states.setOf[local[n]] : -1;
+	}
+
+	/**
+	 * @param state an original state id
+	 * @return the block of the state, -1 if it is unreachable
+	 */
+	int blockOf(int state){
+		return blockOf[state];
+	}
+
+	/**
+	 * @return the number of blocks, the extra sink included
+	 */
+	int blockCount(){
+		return blocks;
+	}
+
+	/**
+	 * @return the block holding the sink that stands for missing
+	 * transitions, -1 if the DFA was complete
+	 */
+	int sinkBlock(){
+		return sinkBlock;
+	}
+
+	/**
+	 * Refinable partition of the integers 0..n-1. The elements of a set are
+	 * contiguous in elems; marked elements are moved to the front of their
+	 * set and split() turns the smaller of the marked and unmarked parts of
+	 * every touched set into a new set.
+	 */
+	private static final class Partition {
+		final int[] elems;
+		final int[] loc;//element -> index in elems
+		final int[] setOf;
+		final int[] first;//set -> first index in elems
+		final int[] past;//set -> index after its last element
+		final int[] marked;//set -> number of marked elements
+		final int[] touched;
+		int touchedCount;
+		int count;
+
+		Partition(int n, int sets){
+			elems = new int[n];
+			loc = new int[n];
+			setOf = new int[n];
+			int cap = Math.max(n, sets) + 1;
+			first = new int[cap];
+			past = new int[cap];
+			marked = new int[cap];
+			touched = new int[cap];
+			for(int i = 0; i < n; i++){
+				elems[i] = loc[i] = i;
+			}
+			count = n > 0 ? 1 : 0;
+			past[0] = n;
+		}
+
+		void mark(int e){
+			int s = setOf[e];
+			int i = loc[e];
+			int j = first[s] + marked[s];
+			if(i < j){
+				return;//already marked
+			}
+			elems[i] = elems[j];
+			loc[elems[i]] = i;
+			elems[j] = e;
+			loc[e] = j;
+			if(marked[s]++ == 0){
+				touched[touchedCount++] = s;
+			}
+		}
+
+		void split(){
+			while(touchedCount > 0){
+				int s = touched[--touchedCount];
+				int j = first[s] + marked[s];
+				if(j == past[s]){
+					marked[s] = 0;
+					continue;
+				}
+				int z = count++;
+				if(marked[s] <= past[s] - j){
+					first[z] = first[s];
+					past[z] = j;
+					first[s] = j;
+				}else{
+					past[z] = past[s];
+					first[z] = j;
+					past[s] = j;
+				}
+				for(int i = first[z]; i < past[z]; i++){
+					setOf[elems[i]] = z;
+				}
+				marked[s] = 0;
+				marked[z] = 0;
+			}
+		}
+	}
+}
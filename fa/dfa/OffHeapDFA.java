@@ -0,0 +1,319 @@
+package fa.dfa;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A read-only DFA whose transition table, final states and names stay in
+ * a DFAImage outside the Java heap, either in a direct buffer or in a
+ * memory-mapped file. accepts() runs on the table directly. DFAState
+ * objects are only created when getStates(), getStartState() or
+ * getToState() hand them out, once per state; they cannot be changed.
+ *
+ * Like a frozen DFA, it throws an IllegalStateException on any attempt
+ * to change it.
+ *
+ * States of an image without names are named by their number.
+ * An OffHeapDFA can be shared by any number of threads.
+ */
+public class OffHeapDFA implements DFAInterface{
+
+	/**
+	 * Rough heap cost of one materialized state (the view object and its
+	 * name String without the characters), assuming compressed references
+	 */
+	private static final int VIEW_BYTES = 64;
+
+	private final DFAImage image;
+	private final Set<Character> ordAbc;
+	private volatile AtomicReferenceArray<View> views;//state id -> view, allocated on first use
+	private final AtomicInteger materialized = new AtomicInteger();
+
+	/**
+	 * Uses an image as it is, without copying it
+	 * @param image the image
+	 */
+	public OffHeapDFA(DFAImage image){
+		this.image = image;
+		Set<Character> abc = new LinkedHashSet<Character>();
+		for(int j = 0; j < image.getSymbolCount(); j++){
+			abc.add(image.getSymbol(j));
+		}
+		ordAbc = Collections.unmodifiableSet(abc);
+	}
+
+	/**
+	 * Maps an image file written by DFA.save
+	 * @param file the image file
+	 * @return the DFA
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public static OffHeapDFA map(Path file) throws IOException {
+		return new OffHeapDFA(DFAImage.map(file));
+	}
+
+	/**
+	 * Copies a DFA into a direct buffer. The DFA itself can be dropped
+	 * afterwards.
+	 * @param dfa the DFA to copy
+	 * @param withNames true to keep the state names
+	 * @return the off-heap copy
+	 */
+	public static OffHeapDFA copyOf(DFA dfa, boolean withNames){
+		return new OffHeapDFA(DFAImage.wrap(DFAImage.encode(dfa.compile(), withNames, true)));
+	}
+
+	/**
+	 * @return the image holding the table
+	 */
+	public DFAImage getImage(){
+		return image;
+	}
+
+	@Override
+	public void addStartState(String name){
+		throw new IllegalStateException("an OffHeapDFA cannot be changed");
+	}
+
+	@Override
+	public void addState(String name){
+		throw new IllegalStateException("an OffHeapDFA cannot be changed");
+	}
+
+	@Override
+	public void addFinalState(String name){
+		throw new IllegalStateException("an OffHeapDFA cannot be changed");
+	}
+
+	@Override
+	public void addTransition(String fromState, char onSymb, String toState){
+		throw new IllegalStateException("an OffHeapDFA cannot be changed");
+	}
+
+	@Override
+	public boolean accepts(String s){
+		return image.accepts(s);
+	}
+
+	@Override
+	public Set<DFAState> getStates(){
+		return new AbstractSet<DFAState>(){
+			@Override
+			public Iterator<DFAState> iterator(){
+				return new StateIterator(false);
+			}
+
+			@Override
+			public int size(){
+				return image.getStateCount();
+			}
+
+			@Override
+			public boolean contains(Object o){
+				return o instanceof View && ((View) o).owner() == OffHeapDFA.this;
+			}
+		};
+	}
+
+	@Override
+	public Set<DFAState> getFinalStates(){
+		int count = 0;
+		for(int q = 0; q < image.getStateCount(); q++){
+			if(image.isFinal(q)){
+				count++;
+			}
+		}
+		final int size = count;
+		return new AbstractSet<DFAState>(){
+			@Override
+			public Iterator<DFAState> iterator(){
+				return new StateIterator(true);
+			}
+
+			@Override
+			public int size(){
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o){
+				return o instanceof View && ((View) o).owner() == OffHeapDFA.this && ((View) o).isFinal();
+			}
+		};
+	}
+
+	@Override
+	public DFAState getStartState(){
+		return image.getStartState() < 0 ? null : view(image.getStartState());
+	}
+
+	@Override
+	public DFAState getToState(DFAState from, char onSymb){
+		return from.getTo(onSymb);
+	}
+
+	@Override
+	public Set<Character> getABC(){
+		return ordAbc;
+	}
+
+	/**
+	 * Prints the DFA like DFA.toString(), which creates the state of
+	 * every view
+	 */
+	@Override
+	public String toString(){
+		StringBuilder sb = new StringBuilder();
+		try {
+			DFA.writeTuple(sb, getStates(), ordAbc, getStartState());
+		} catch (IOException e) {
+			//a StringBuilder does not throw
+			throw new UncheckedIOException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the bytes of the table kept outside the Java heap
+	 */
+	public long getOffHeapBytes(){
+		return image.isDirect() ? image.byteSize() : 0;
+	}
+
+	/**
+	 * Estimates the heap used by this DFA: the symbol tables, the image
+	 * if it is a heap buffer, and the views created so far
+	 * @return the estimate in bytes
+	 */
+	public long getHeapBytes(){
+		long bytes = image.heapBytes() + 40L * ordAbc.size();
+		if(views != null){
+			bytes += 16L + 4L * image.getStateCount();
+		}
+		return bytes + (long) VIEW_BYTES * materialized.get();
+	}
+
+	/**
+	 * Estimates the heap a DFA made of DFAState objects with the same
+	 * states and transitions needs: the state, its name and its
+	 * transition map plus its entries in the state set and name index
+	 * @return the estimate in bytes
+	 */
+	public long getEquivalentHeapBytes(){
+		return (long) image.getStateCount() * (216 + 40L * image.getSymbolCount());
+	}
+
+	/**
+	 * @return the number of DFAState views created so far
+	 */
+	public int getMaterializedStates(){
+		return materialized.get();
+	}
+
+	/**
+	 * @return a one line summary of the memory used by this DFA
+	 */
+	public String footprintReport(){
+		return image.getStateCount() + " states, " + image.getSymbolCount() + " symbols: "
+				+ getOffHeapBytes() + " bytes off-heap, about " + getHeapBytes() + " bytes on the heap ("
+				+ getMaterializedStates() + " states materialized), about " + getEquivalentHeapBytes()
+				+ " bytes as a DFA";
+	}
+
+	/**
+	 * Returns the one view of a state, creating it on first use
+	 * @param id a state id
+	 * @return the view
+	 */
+	private DFAState view(int id){
+		AtomicReferenceArray<View> all = views;
+		if(all == null){
+			synchronized(this){
+				all = views;
+				if(all == null){
+					all = new AtomicReferenceArray<View>(image.getStateCount());
+					views = all;
+				}
+			}
+		}
+		View v = all.get(id);
+		if(v == null){
+			String name = image.hasNames() ? image.getStateName(id) : String.valueOf(id);
+			v = new View(id, name, image.isFinal(id));
+			if(all.compareAndSet(id, null, v)){
+				materialized.incrementAndGet();
+			}else{
+				v = all.get(id);
+			}
+		}
+		return v;
+	}
+
+	/**
+	 * Walks the states in id order, optionally the final ones only
+	 */
+	private final class StateIterator implements Iterator<DFAState> {
+		private final boolean finalOnly;
+		private int next;
+
+		StateIterator(boolean finalOnly){
+			this.finalOnly = finalOnly;
+			this.next = skip(0);
+		}
+
+		private int skip(int q){
+			while(finalOnly && q < image.getStateCount() && !image.isFinal(q)){
+				q++;
+			}
+			return q;
+		}
+
+		@Override
+		public boolean hasNext(){
+			return next < image.getStateCount();
+		}
+
+		@Override
+		public DFAState next(){
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			DFAState ret = view(next);
+			next = skip(next + 1);
+			return ret;
+		}
+	}
+
+	/**
+	 * A state of the image. Its transitions are read from the table.
+	 */
+	private final class View extends DFAState {
+		private final int id;
+
+		View(int id, String name, boolean isFinal){
+			super(name, isFinal);
+			this.id = id;
+			freeze();
+		}
+
+		OffHeapDFA owner(){
+			return OffHeapDFA.this;
+		}
+
+		@Override
+		DFAState peekTo(char symb){
+			int sym = image.symbolOf(symb);
+			int to = sym < 0 ? -1 : image.next(id, sym);
+			return to < 0 ? null : view(to);
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package fa.dfa;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import fa.State;
+
+/**
+ * Product construction of two DFAs, used by the language operations of
+ * DFAInterface. A state of the product is a pair of a state of each DFA
+ * and the pairs are explored breadth first from the pair of start states,
+ * so only reachable pairs are ever looked at. The questions that have a
+ * yes or no answer stop at the first pair that decides them and never
+ * build the product at all.
+ *
+ * Both DFAs are read through their tables: a DFA through its cached
+ * compiled form and an OffHeapDFA through its image, without copying.
+ * The alphabet of the product is the union of both alphabets. A missing
+ * transition or a symbol outside a DFA's alphabet leads that DFA to the
+ * state -1, which rejects everything; a pair holds -1 like any other state.
+ */
+final class Product {
+
+	static final int AND = 0;//accepted by both DFAs
+	static final int OR = 1;//accepted by either DFA
+	static final int MINUS = 2;//accepted by the first DFA but not the second
+	static final int NOT = 3;//not accepted by the first DFA, there is no second
+
+	private final TransitionTable a;
+	private final TransitionTable b;//null for NOT
+	private final int op;
+	private final char[] abc;//the union of both alphabets, the symbols of a first
+	private final int[] symA;//abc index -> symbol id in a, -1 if a lacks it
+	private final int[] symB;
+
+	//the pairs found so far, numbered in the order they were found
+	private int[] left = new int[64];
+	private int[] right = new int[64];
+	private int[] parent = new int[64];//the pair it was found from, -1 for the start pair
+	private int[] via = new int[64];//the abc index it was found on
+	private int count;
+	//open addressing table of pair keys and their numbers, -1 if empty
+	private long[] keys;
+	private int[] values;
+
+	/**
+	 * @param x the first DFA
+	 * @param y the second DFA, null for NOT
+	 * @param op AND, OR, MINUS or NOT
+	 */
+	Product(DFAInterface x, DFAInterface y, int op){
+		this.op = op;
+		a = tableOf(x);
+		b = y == null ? null : tableOf(y);
+		int k = a.getSymbolCount();
+		char[] symbols = new char[k + (b == null ? 0 : b.getSymbolCount())];
+		for(int i = 0; i < k; i++){
+			symbols[i] = a.getSymbol(i);
+		}
+		if(b != null){
+			for(int i = 0; i < b.getSymbolCount(); i++){
+				if(a.symbolOf(b.getSymbol(i)) < 0){
+					symbols[k++] = b.getSymbol(i);
+				}
+			}
+		}
+		abc = Arrays.copyOf(symbols, k);
+		symA = new int[k];
+		symB = new int[k];
+		for(int i = 0; i < k; i++){
+			symA[i] = a.symbolOf(abc[i]);
+			symB[i] = b == null ? -1 : b.symbolOf(abc[i]);
+		}
+	}
+
+	/**
+	 * @return the table of a DFA, copied only if its class is not one of
+	 * this package
+	 */
+	private static TransitionTable tableOf(DFAInterface dfa){
+		if(dfa instanceof DFA){
+			return ((DFA) dfa).compiled();
+		}
+		if(dfa instanceof OffHeapDFA){
+			return ((OffHeapDFA) dfa).getImage();
+		}
+		DFA copy = new DFA();
+		DFAState start = (DFAState) dfa.getStartState();
+		if(start != null){
+			copy.addStartState(start.getName(), start.isFinal());
+		}
+		for(State s : dfa.getStates()){
+			DFAState q = (DFAState) s;
+			if(q == start){
+				continue;
+			}
+			if(q.isFinal()){
+				copy.addFinalState(q.getName());
+			}else{
+				copy.addState(q.getName());
+			}
+		}
+		for(State s : dfa.getStates()){
+			for(char c : dfa.getABC()){
+				DFAState t = ((DFAState) s).peekTo(c);
+				if(t != null){
+					copy.addTransition(s.getName(), c, t.getName());
+				}
+			}
+		}
+		return copy.compiled();
+	}
+
+	/**
+	 * Builds the reachable part of the product as a DFA. Every pair gets
+	 * a transition on every symbol of the union alphabet, so the result
+	 * is complete. The states are named (i,j) after the ids of the pair in
+	 * the order of getStates() of each DFA, - standing for -1. For NOT the
+	 * states keep the names of the first DFA and -1 becomes an accepting
+	 * sink named -, or -' and so on if that name is taken.
+	 * @return a new DFA
+	 */
+	DFA build(){
+		int k = abc.length;
+		int[] delta = new int[64 * Math.max(k, 1)];
+		visit(a.getStartState(), b == null ? -1 : b.getStartState(), -1, -1);
+		for(int i = 0; i < count; i++){
+			if((i + 1) * k > delta.length){
+				delta = Arrays.copyOf(delta, delta.length * 2);
+			}
+			for(int s = 0; s < k; s++){
+				delta[i * k + s] = visit(step(a, symA, left[i], s), step(b, symB, right[i], s), i, s);
+			}
+		}
+
+		String[] names = new String[count];
+		if(op == NOT){
+			Set<String> taken = new HashSet<String>();
+			for(int i = 0; i < count; i++){
+				if(left[i] >= 0){
+					names[i] = a.getStateName(left[i]);
+					if(names[i] == null){
+						names[i] = Integer.toString(left[i]);
+					}
+					taken.add(names[i]);
+				}
+			}
+			String sink = "-";
+			while(taken.contains(sink)){
+				sink += "'";
+			}
+			for(int i = 0; i < count; i++){
+				if(left[i] < 0){
+					names[i] = sink;
+				}
+			}
+		}else{
+			for(int i = 0; i < count; i++){
+				names[i] = "(" + id(left[i]) + "," + id(right[i]) + ")";
+			}
+		}
+
+		DFA dfa = new DFA();
+		dfa.addStartState(names[0], accepting(left[0], right[0]));
+		for(int i = 1; i < count; i++){
+			if(accepting(left[i], right[i])){
+				dfa.addFinalState(names[i]);
+			}else{
+				dfa.addState(names[i]);
+			}
+		}
+		String[] from = new String[count * k];
+		char[] on = new char[count * k];
+		String[] to = new String[count * k];
+		for(int t = 0; t < count * k; t++){
+			from[t] = names[t / k];
+			on[t] = abc[t % k];
+			to[t] = names[delta[t]];
+		}
+		dfa.addTransitions(from, on, to);
+		return dfa;
+	}
+
+	private static String id(int state){
+		return state < 0 ? "-" : Integer.toString(state);
+	}
+
+	/**
+	 * Searches the product breadth first for an accepting pair. Pairs
+	 * that cannot lead to one because a DFA that must accept is at -1
+	 * are not expanded.
+	 * @return a shortest string the product accepts, null if there is none
+	 */
+	String witness(){
+		visit(a.getStartState(), b == null ? -1 : b.getStartState(), -1, -1);
+		for(int i = 0; i < count; i++){
+			int p = left[i];
+			int q = right[i];
+			if(accepting(p, q)){
+				return word(i);
+			}
+			if(hopeless(p, q)){
+				continue;
+			}
+			for(int s = 0; s < abc.length; s++){
+				visit(step(a, symA, p, s), step(b, symB, q, s), i, s);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Hopcroft and Karp's equivalence check: the states of both DFAs,
+	 * each with its -1, are merged in a union-find structure as pairs are
+	 * reached, and a pair whose states are already in the same class is
+	 * not followed again. Every pair that is followed is checked for
+	 * agreement on acceptance, which stops the search at the first
+	 * disagreement. At most n + m + 1 pairs are followed for DFAs of n
+	 * and m states.
+	 * @return a string accepted by exactly one of the two DFAs, null if
+	 * they accept the same strings
+	 */
+	String distinguishing(){
+		int na = a.getStateCount() + 1;
+		int[] uf = new int[na + b.getStateCount() + 1];//p + 1 for a, na + q + 1 for b
+		for(int i = 0; i < uf.length; i++){
+			uf[i] = i;
+		}
+		int p0 = a.getStartState();
+		int q0 = b.getStartState();
+		uf[p0 + 1] = na + q0 + 1;
+		push(p0, q0, -1, -1);
+		for(int i = 0; i < count; i++){
+			int p = left[i];
+			int q = right[i];
+			if(a.isFinal(p) != b.isFinal(q)){
+				return word(i);
+			}
+			for(int s = 0; s < abc.length; s++){
+				int tp = step(a, symA, p, s);
+				int tq = step(b, symB, q, s);
+				int ra = find(uf, tp + 1);
+				int rb = find(uf, na + tq + 1);
+				if(ra != rb){
+					uf[ra] = rb;
+					push(tp, tq, i, s);
+				}
+			}
+		}
+		return null;
+	}
+
+	private static int find(int[] uf, int x){
+		while(uf[x] != x){
+			uf[x] = uf[uf[x]];//path halving
+			x = uf[x];
+		}
+		return x;
+	}
+
+	private static int step(TransitionTable t, int[] sym, int state, int s){
+		return state < 0 || sym[s] < 0 ? -1 : t.next(state, sym[s]);
+	}
+
+	private boolean accepting(int p, int q){
+		switch(op){
+		case AND:
+			return a.isFinal(p) && b.isFinal(q);
+		case OR:
+			return a.isFinal(p) || b != null && b.isFinal(q);
+		case MINUS:
+			return a.isFinal(p) && !b.isFinal(q);
+		default:
+			return !a.isFinal(p);
+		}
+	}
+
+	/**
+	 * @return true if no accepting pair can be reached from the pair
+	 */
+	private boolean hopeless(int p, int q){
+		switch(op){
+		case AND:
+			return p < 0 || q < 0;
+		case OR:
+			return p < 0 && q < 0;
+		case MINUS:
+			return p < 0;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return the symbols on the path from the start pair to a pair
+	 */
+	private String word(int pair){
+		int n = 0;
+		for(int i = pair; parent[i] >= 0; i = parent[i]){
+			n++;
+		}
+		char[] w = new char[n];
+		for(int i = pair; parent[i] >= 0; i = parent[i]){
+			w[--n] = abc[via[i]];
+		}
+		return new String(w);
+	}
+
+	/**
+	 * Looks up a pair and adds it if it is new
+	 * @param from the pair it is reached from
+	 * @param s the abc index it is reached on
+	 * @return the number of the pair
+	 */
+	private int visit(int p, int q, int from, int s){
+		if(keys == null || 2 * count >= keys.length){
+			rehash();
+		}
+		long key = (long) (p + 1) << 32 | (q + 1);
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while(keys[i] != -1){
+			if(keys[i] == key){
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = count;
+		push(p, q, from, s);
+		return count - 1;
+	}
+
+	private void rehash(){
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys == null ? 128 : oldKeys.length * 2];
+		values = new int[keys.length];
+		Arrays.fill(keys, -1);
+		if(oldKeys == null){
+			return;
+		}
+		int mask = keys.length - 1;
+		for(int j = 0; j < oldKeys.length; j++){
+			if(oldKeys[j] != -1){
+				int i = slot(oldKeys[j], mask);
+				while(keys[i] != -1){
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	private static int slot(long key, int mask){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+	private void push(int p, int q, int from, int s){
+		if(count == left.length){
+			left = Arrays.copyOf(left, count * 2);
+			right = Arrays.copyOf(right, count * 2);
+			parent = Arrays.copyOf(parent, count * 2);
+			via = Arrays.copyOf(via, count * 2);
+		}
+		left[count] = p;
+		right[count] = q;
+		parent[count] = from;
+		via[count] = s;
+		count++;
+	}
+}
@@ -0,0 +1,55 @@
+package fa.dfa;
+
+/**
+ * The read side that CompiledDFA and DFAImage share: states and symbols
+ * are dense ids and a missing transition is -1. Product runs on it, so
+ * an OffHeapDFA is explored without copying it onto the heap.
+ */
+interface TransitionTable {
+
+	/**
+	 * @return the number of states
+	 */
+	int getStateCount();
+
+	/**
+	 * @return the number of alphabet symbols
+	 */
+	int getSymbolCount();
+
+	/**
+	 * @param symbol a symbol id
+	 * @return the character of the symbol
+	 */
+	char getSymbol(int symbol);
+
+	/**
+	 * @param c a character
+	 * @return the symbol id of c or -1 if c is not in the alphabet
+	 */
+	int symbolOf(char c);
+
+	/**
+	 * @return the id of the start state, -1 if there is none
+	 */
+	int getStartState();
+
+	/**
+	 * @param state the source state id
+	 * @param symbol the symbol id
+	 * @return the target state id or -1 if there is no transition
+	 */
+	int next(int state, int symbol);
+
+	/**
+	 * @param state a state id, may be -1
+	 * @return true if state is a final state
+	 */
+	boolean isFinal(int state);
+
+	/**
+	 * @param state a state id
+	 * @return the name of the state
+	 */
+	String getStateName(int state);
+}
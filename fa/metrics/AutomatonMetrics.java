@@ -0,0 +1,75 @@
+package fa.metrics;
+
+/**
+ * Receives counters and timings from the automata operations.
+ * Every method has an empty default, so an implementation only overrides
+ * what it records. The operations report once per call, never once per
+ * input character, and only read the clock through clock(), which is
+ * free while NONE is installed. See Metrics for how to install one.
+ *
+ * Implementations are called from any thread and must be thread-safe.
+ */
+public interface AutomatonMetrics {
+
+	/**
+	 * Records nothing; the default until Metrics.install is called
+	 */
+	AutomatonMetrics NONE = new AutomatonMetrics(){
+		@Override
+		public long clock(){
+			return 0;
+		}
+	};
+
+	/**
+	 * @return the current time in nanoseconds, for timing the phases
+	 * of an operation
+	 */
+	default long clock(){
+		return System.nanoTime();
+	}
+
+	/**
+	 * A subset construction finished
+	 * @param subsets the number of subsets discovered, the DFA states
+	 * @param closures the number of epsilon closures merged into subsets
+	 * @param queueHighWater the most subsets waiting to be explored at once
+	 * @param exploreNanos the time spent finding the subsets
+	 * @param emitNanos the time spent naming them and building the DFA
+	 */
+	default void subsetConstruction(int subsets, long closures, int queueHighWater, long exploreNanos, long emitNanos){
+	}
+
+	/**
+	 * The epsilon closures of an NFA were computed
+	 * @param states the number of NFA states
+	 * @param nanos the time it took
+	 */
+	default void closureIndex(int states, long nanos){
+	}
+
+	/**
+	 * NFA.eClosure was called
+	 * @param size the number of states in the closure
+	 */
+	default void eClosure(int size){
+	}
+
+	/**
+	 * An input was matched
+	 * @param steps the number of input characters read
+	 * @param accepted true if the input was accepted
+	 * @param dead true if matching stopped early because no state was
+	 * left that could accept
+	 */
+	default void match(int steps, boolean accepted, boolean dead){
+	}
+
+	/**
+	 * A match reached a dead state or an accepting sink before the end
+	 * of its input and skipped the rest; reported after match
+	 * @param skipped the number of characters not run through the table
+	 */
+	default void shortCircuit(int skipped){
+	}
+}
@@ -0,0 +1,162 @@
+package fa.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sums everything reported into striped counters, so threads matching
+ * in parallel do not contend on one counter. The totals can be read
+ * directly or through JMX, see Metrics.
+ */
+public class CountingMetrics implements AutomatonMetrics, CountingMetricsMXBean {
+
+	private final LongAdder constructions = new LongAdder();
+	private final LongAdder subsets = new LongAdder();
+	private final LongAdder closures = new LongAdder();
+	private final LongAccumulator queueHighWater = new LongAccumulator(Math::max, 0);
+	private final LongAdder exploreNanos = new LongAdder();
+	private final LongAdder emitNanos = new LongAdder();
+	private final LongAdder indexBuilds = new LongAdder();
+	private final LongAdder indexNanos = new LongAdder();
+	private final LongAdder eClosures = new LongAdder();
+	private final LongAdder accepts = new LongAdder();
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder steps = new LongAdder();
+	private final LongAdder deadHits = new LongAdder();
+	private final LongAdder shortCircuits = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+
+	@Override
+	public void subsetConstruction(int subsets, long closures, int queueHighWater, long exploreNanos, long emitNanos){
+		this.constructions.increment();
+		this.subsets.add(subsets);
+		this.closures.add(closures);
+		this.queueHighWater.accumulate(queueHighWater);
+		this.exploreNanos.add(exploreNanos);
+		this.emitNanos.add(emitNanos);
+	}
+
+	@Override
+	public void closureIndex(int states, long nanos){
+		this.indexBuilds.increment();
+		this.indexNanos.add(nanos);
+	}
+
+	@Override
+	public void eClosure(int size){
+		this.eClosures.increment();
+	}
+
+	@Override
+	public void match(int steps, boolean accepted, boolean dead){
+		this.accepts.increment();
+		this.steps.add(steps);
+		if(accepted){
+			this.accepted.increment();
+		}
+		if(dead){
+			this.deadHits.increment();
+		}
+	}
+
+	@Override
+	public void shortCircuit(int skipped){
+		this.shortCircuits.increment();
+		this.skipped.add(skipped);
+	}
+
+	@Override
+	public long getSubsetConstructions(){
+		return constructions.sum();
+	}
+
+	@Override
+	public long getSubsetsDiscovered(){
+		return subsets.sum();
+	}
+
+	@Override
+	public long getClosureComputations(){
+		return closures.sum();
+	}
+
+	@Override
+	public int getQueueHighWater(){
+		return (int) queueHighWater.get();
+	}
+
+	@Override
+	public long getExploreNanos(){
+		return exploreNanos.sum();
+	}
+
+	@Override
+	public long getEmitNanos(){
+		return emitNanos.sum();
+	}
+
+	@Override
+	public long getClosureIndexBuilds(){
+		return indexBuilds.sum();
+	}
+
+	@Override
+	public long getClosureIndexNanos(){
+		return indexNanos.sum();
+	}
+
+	@Override
+	public long getEClosureCalls(){
+		return eClosures.sum();
+	}
+
+	@Override
+	public long getAcceptCalls(){
+		return accepts.sum();
+	}
+
+	@Override
+	public long getAccepted(){
+		return accepted.sum();
+	}
+
+	@Override
+	public long getSteps(){
+		return steps.sum();
+	}
+
+	@Override
+	public long getDeadStateHits(){
+		return deadHits.sum();
+	}
+
+	@Override
+	public long getShortCircuits(){
+		return shortCircuits.sum();
+	}
+
+	@Override
+	public long getSkippedChars(){
+		return skipped.sum();
+	}
+
+	@Override
+	public void reset(){
+		for(LongAdder a : new LongAdder[]{constructions, subsets, closures, exploreNanos, emitNanos,
+				indexBuilds, indexNanos, eClosures, accepts, accepted, steps, deadHits, shortCircuits, skipped}){
+			a.reset();
+		}
+		queueHighWater.reset();
+	}
+
+	@Override
+	public String toString(){
+		return getSubsetConstructions() + " subset constructions (" + getSubsetsDiscovered() + " subsets, "
+				+ getClosureComputations() + " closures, queue high-water " + getQueueHighWater() + ", "
+				+ getExploreNanos() / 1000000 + " ms exploring, " + getEmitNanos() / 1000000 + " ms emitting), "
+				+ getClosureIndexBuilds() + " closure indexes, " + getEClosureCalls() + " eClosure calls, "
+				+ getAcceptCalls() + " accept calls (" + getAccepted() + " accepted, " + getSteps() + " steps, "
+				+ getDeadStateHits() + " dead-state hits, " + getSkippedChars() + " characters skipped by "
+				+ getShortCircuits() + " short-circuits)";
+	}
+}
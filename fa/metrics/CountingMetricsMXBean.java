@@ -0,0 +1,42 @@
+package fa.metrics;
+
+/**
+ * The JMX view of CountingMetrics
+ */
+public interface CountingMetricsMXBean {
+
+	long getSubsetConstructions();
+
+	long getSubsetsDiscovered();
+
+	long getClosureComputations();
+
+	int getQueueHighWater();
+
+	long getExploreNanos();
+
+	long getEmitNanos();
+
+	long getClosureIndexBuilds();
+
+	long getClosureIndexNanos();
+
+	long getEClosureCalls();
+
+	long getAcceptCalls();
+
+	long getAccepted();
+
+	long getSteps();
+
+	long getDeadStateHits();
+
+	long getShortCircuits();
+
+	long getSkippedChars();
+
+	/**
+	 * Sets every counter back to zero
+	 */
+	void reset();
+}
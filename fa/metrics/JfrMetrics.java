@@ -0,0 +1,118 @@
+package fa.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * CountingMetrics that also emit JDK Flight Recorder events: one event
+ * per subset construction and per closure index build, and, since one
+ * event per match would cost more than the match, a periodic event with
+ * the running match totals. The events are only written while a
+ * recording that enables them is running.
+ */
+public class JfrMetrics extends CountingMetrics {
+
+	public JfrMetrics(){
+		FlightRecorder.addPeriodicEvent(MatchTotals.class, () -> {
+			MatchTotals event = new MatchTotals();
+			event.acceptCalls = getAcceptCalls();
+			event.accepted = getAccepted();
+			event.steps = getSteps();
+			event.deadStateHits = getDeadStateHits();
+			event.skippedChars = getSkippedChars();
+			event.commit();
+		});
+	}
+
+	@Override
+	public void subsetConstruction(int subsets, long closures, int queueHighWater, long exploreNanos, long emitNanos){
+		super.subsetConstruction(subsets, closures, queueHighWater, exploreNanos, emitNanos);
+		SubsetConstruction event = new SubsetConstruction();
+		if(event.shouldCommit()){
+			event.subsets = subsets;
+			event.closures = closures;
+			event.queueHighWater = queueHighWater;
+			event.explore = exploreNanos;
+			event.emit = emitNanos;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void closureIndex(int states, long nanos){
+		super.closureIndex(states, nanos);
+		ClosureIndex event = new ClosureIndex();
+		if(event.shouldCommit()){
+			event.states = states;
+			event.build = nanos;
+			event.commit();
+		}
+	}
+
+	@Name("fa.SubsetConstruction")
+	@Label("Subset Construction")
+	@Category("Automata")
+	@StackTrace(false)
+	static class SubsetConstruction extends Event {
+		@Label("Subsets")
+		int subsets;
+
+		@Label("Closures")
+		long closures;
+
+		@Label("Queue High-Water")
+		int queueHighWater;
+
+		@Label("Explore")
+		@Timespan
+		long explore;
+
+		@Label("Emit")
+		@Description("Naming the subsets and building the DFA")
+		@Timespan
+		long emit;
+	}
+
+	@Name("fa.ClosureIndex")
+	@Label("Epsilon Closure Index")
+	@Category("Automata")
+	@StackTrace(false)
+	static class ClosureIndex extends Event {
+		@Label("NFA States")
+		int states;
+
+		@Label("Build Time")
+		@Timespan
+		long build;
+	}
+
+	@Name("fa.MatchTotals")
+	@Label("Match Totals")
+	@Category("Automata")
+	@Period("1 s")
+	@StackTrace(false)
+	static class MatchTotals extends Event {
+		@Label("Accept Calls")
+		long acceptCalls;
+
+		@Label("Accepted")
+		long accepted;
+
+		@Label("Steps")
+		long steps;
+
+		@Label("Dead-State Hits")
+		long deadStateHits;
+
+		@Label("Skipped Characters")
+		@Description("Input not read because the outcome was already decided")
+		long skippedChars;
+	}
+}
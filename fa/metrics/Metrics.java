@@ -0,0 +1,65 @@
+package fa.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Holds the AutomatonMetrics the automata operations report to.
+ * Nothing is recorded until one is installed, either with install or by
+ * starting the JVM with -Dfa.metrics=jmx (counters registered as an
+ * MXBean under NAME) or -Dfa.metrics=jfr (the same, plus JFR events).
+ */
+public final class Metrics {
+
+	/**
+	 * The MXBean name of the metrics installed through fa.metrics
+	 */
+	public static final String NAME = "fa:type=AutomatonMetrics";
+
+	private static volatile AutomatonMetrics current = fromProperty(System.getProperty("fa.metrics"));
+
+	private Metrics(){
+	}
+
+	/**
+	 * @return the metrics to report to, AutomatonMetrics.NONE if none
+	 * are installed
+	 */
+	public static AutomatonMetrics get(){
+		return current;
+	}
+
+	/**
+	 * Makes every operation started from now on report to the given metrics
+	 * @param metrics the metrics, null to stop recording
+	 */
+	public static void install(AutomatonMetrics metrics){
+		current = metrics == null ? AutomatonMetrics.NONE : metrics;
+	}
+
+	/**
+	 * Runs in the static initializer, so problems are reported on
+	 * System.err instead of mixing into the output of a program
+	 */
+	private static AutomatonMetrics fromProperty(String kind){
+		CountingMetrics metrics;
+		if("jmx".equals(kind)){
+			metrics = new CountingMetrics();
+		}else if("jfr".equals(kind)){
+			metrics = new JfrMetrics();
+		}else{
+			if(kind != null){
+				System.err.println("WARNING: unknown fa.metrics value " + kind + ", metrics are off");
+			}
+			return AutomatonMetrics.NONE;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(NAME));
+		} catch (JMException e) {
+			System.err.println("WARNING: metrics not registered with JMX: " + e);
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,375 @@
+package fa.nfa;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import fa.State;
+import fa.dfa.CompiledDFA;
+
+/**
+ * A cache of compiled DFAs shared by any number of threads.
+ * NFAs are looked up by their structure: the states in the order the NFA
+ * keeps them, which of them are final, the start state and the
+ * transitions, but not the state names. Two NFAs built the same way get
+ * the same CompiledDFA, which carries the state names of whichever of
+ * them was built first.
+ *
+ * A missing DFA is built by the first thread that asks for it; threads
+ * asking for the same structure meanwhile wait for that build instead of
+ * starting their own. The entries are kept in least recently used order
+ * and the oldest are evicted once the estimated size of all cached DFAs
+ * is over the budget. A DFA larger than the whole budget is returned
+ * but not kept, and evicts nothing.
+ *
+ * An NFA must not change while it is looked up.
+ */
+public final class AutomatonRegistry {
+
+    private final long maxBytes;
+    //access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<Key,Entry> entries = new LinkedHashMap<Key,Entry>(16, 0.75f, true);
+    private long usedBytes;
+
+    //statistics, guarded by this like the entries
+    private long hits;
+    private long misses;
+    private long sharedBuilds; //hits on a build still in flight
+    private long evictions;
+    private long failures;
+    private long builds; //successful ones
+    private long buildNanos;
+    private long maxBuildNanos;
+
+    /**
+     * @param maxBytes the most bytes the cached DFAs may take, as
+     * estimated by CompiledDFA.getMemorySize()
+     */
+    public AutomatonRegistry(long maxBytes){
+        if(maxBytes < 0){
+            throw new IllegalArgumentException("negative budget " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the compiled DFA of an NFA, building it unless a DFA of the
+     * same structure is cached or being built
+     * @param nfa the NFA, with a start state
+     * @return the compiled equivalent DFA
+     * @throws IllegalArgumentException if the NFA has no start state
+     */
+    public CompiledDFA get(NFA nfa){
+        if(nfa.getStartState() == null){
+            throw new IllegalArgumentException("the NFA has no start state");
+        }
+        Key key = new Key(nfa);
+        Entry entry;
+        boolean owner = false;
+        synchronized(this){
+            entry = this.entries.get(key);
+            if(entry == null){
+                entry = new Entry();
+                this.entries.put(key, entry);
+                this.misses++;
+                owner = true;
+            }else{
+                this.hits++;
+                if(!entry.dfa.isDone()){
+                    this.sharedBuilds++;
+                }
+            }
+        }
+        if(owner){
+            return build(nfa, key, entry);
+        }
+        try{
+            return entry.dfa.join();
+        }catch(CompletionException e){
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Builds the DFA of a new entry and hands it to the threads waiting
+     * for it
+     */
+    private CompiledDFA build(NFA nfa, Key key, Entry entry){
+        long start = System.nanoTime();
+        CompiledDFA dfa;
+        try{
+            dfa = nfa.getDFA().compile();
+        }catch(RuntimeException | Error e){
+            synchronized(this){
+                this.entries.remove(key, entry);
+                this.failures++;
+            }
+            entry.dfa.completeExceptionally(e);
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+        long size = dfa.getMemorySize();
+        synchronized(this){
+            this.builds++;
+            this.buildNanos += nanos;
+            this.maxBuildNanos = Math.max(this.maxBuildNanos, nanos);
+            //the entry is gone if clear() or invalidate() ran meanwhile
+            if(this.entries.get(key) == entry){
+                if(size > this.maxBytes){
+                    //returned but not kept, and the other entries stay
+                    this.entries.remove(key);
+                }else{
+                    entry.size = size;
+                    this.usedBytes += size;
+                    evict();
+                }
+            }
+        }
+        entry.dfa.complete(dfa);
+        return dfa;
+    }
+
+    /**
+     * Drops least recently used entries until the budget holds. Entries
+     * still being built take no space yet and are skipped.
+     */
+    private void evict(){
+        Iterator<Entry> it = this.entries.values().iterator();
+        while(this.usedBytes > this.maxBytes && it.hasNext()){
+            Entry e = it.next();
+            if(e.size > 0){
+                it.remove();
+                this.usedBytes -= e.size;
+                this.evictions++;
+            }
+        }
+    }
+
+    /**
+     * Drops the DFA of an NFA's structure, if cached
+     * @param nfa the NFA
+     * @return true if an entry was dropped
+     */
+    public boolean invalidate(NFA nfa){
+        Key key = new Key(nfa);
+        synchronized(this){
+            Entry e = this.entries.remove(key);
+            if(e != null){
+                this.usedBytes -= e.size;
+            }
+            return e != null;
+        }
+    }
+
+    /**
+     * Drops every entry. Builds in flight still complete for the threads
+     * waiting for them, but are not cached.
+     */
+    public synchronized void clear(){
+        this.entries.clear();
+        this.usedBytes = 0;
+    }
+
+    /**
+     * @return the number of cached DFAs, including those being built
+     */
+    public synchronized int size(){
+        return this.entries.size();
+    }
+
+    /**
+     * @return the estimated bytes taken by the cached DFAs
+     */
+    public synchronized long getUsedBytes(){
+        return this.usedBytes;
+    }
+
+    /**
+     * @return the budget given to the constructor
+     */
+    public long getMaxBytes(){
+        return this.maxBytes;
+    }
+
+    /**
+     * @return the number of lookups that found a cached DFA or a build
+     * in flight
+     */
+    public synchronized long getHitCount(){
+        return this.hits;
+    }
+
+    /**
+     * @return the number of lookups that started a build
+     */
+    public synchronized long getMissCount(){
+        return this.misses;
+    }
+
+    /**
+     * @return hits / (hits + misses), 0 before the first lookup
+     */
+    public synchronized double getHitRatio(){
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : (double) this.hits / lookups;
+    }
+
+    /**
+     * @return the number of hits that waited for a build in flight
+     * instead of starting their own
+     */
+    public synchronized long getSharedBuildCount(){
+        return this.sharedBuilds;
+    }
+
+    /**
+     * @return the number of entries evicted to keep the budget
+     */
+    public synchronized long getEvictionCount(){
+        return this.evictions;
+    }
+
+    /**
+     * @return the number of builds that threw
+     */
+    public synchronized long getFailureCount(){
+        return this.failures;
+    }
+
+    /**
+     * @return the mean time of the successful builds in nanoseconds, 0
+     * before the first
+     */
+    public synchronized long getAverageBuildNanos(){
+        return this.builds == 0 ? 0 : this.buildNanos / this.builds;
+    }
+
+    /**
+     * @return the longest successful build in nanoseconds
+     */
+    public synchronized long getMaxBuildNanos(){
+        return this.maxBuildNanos;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return this.entries.size() + " DFAs, " + this.usedBytes + " of " + this.maxBytes + " bytes, hit ratio "
+                + getHitRatio() + ", " + this.evictions + " evictions, average build "
+                + getAverageBuildNanos() / 1000 + " us";
+    }
+
+    private static final class Entry {
+        final CompletableFuture<CompiledDFA> dfa = new CompletableFuture<CompiledDFA>();
+        long size; //estimated bytes once built, 0 while in flight
+    }
+
+    /**
+     * The structure of an NFA encoded as ints: the number of states, the
+     * sorted alphabet, the start state, the final states, then for every state its epsilon
+     * successors and its successors on each symbol in increasing order.
+     * States are numbered in the order of NFA.getStates() and the
+     * successors are sorted, so the order in which transitions were
+     * added does not matter.
+     */
+    private static final class Key {
+        private static final int END = -1;
+        private static final int EPSILON = -2;
+
+        private final int[] code;
+        private final int hash;
+
+        Key(NFA nfa){
+            Map<NFAState,Integer> ids = new IdentityHashMap<NFAState,Integer>();
+            for(State s : nfa.getStates()){
+                ids.put((NFAState) s, ids.size());
+            }
+            char[] abc = new char[nfa.getABC().size()];
+            int k = 0;
+            for(char c : nfa.getABC()){
+                abc[k++] = c;
+            }
+            Arrays.sort(abc);
+            IntList code = new IntList();
+            code.add(ids.size());
+            //the alphabet shapes the compiled DFA even where no transition uses a symbol
+            code.add(abc.length);
+            for(char c : abc){
+                code.add(c);
+            }
+            code.add(ids.get(nfa.getStartState()));
+            for(State s : nfa.getStates()){
+                if(((NFAState) s).getIsFinal()){
+                    code.add(ids.get(s));
+                }
+            }
+            code.add(END);
+            for(State s : nfa.getStates()){
+                NFAState q = (NFAState) s;
+                targets(code, EPSILON, q.epsilonSuccessors(), ids);
+                for(char c : abc){
+                    targets(code, c, q.successors(c), ids);
+                }
+                code.add(END);
+            }
+            this.code = code.toArray();
+            this.hash = Arrays.hashCode(this.code);
+        }
+
+        private static void targets(IntList code, int symbol, NFAState[] to, Map<NFAState,Integer> ids){
+            if(to == null){
+                return;
+            }
+            code.add(symbol);
+            code.add(to.length);
+            int first = code.size();
+            for(NFAState t : to){
+                code.add(ids.get(t));
+            }
+            code.sort(first);
+        }
+
+        @Override
+        public int hashCode(){
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            return o instanceof Key && ((Key) o).hash == this.hash && Arrays.equals(((Key) o).code, this.code);
+        }
+    }
+
+    private static final class IntList {
+        private int[] a = new int[64];
+        private int n;
+
+        void add(int v){
+            if(this.n == this.a.length){
+                this.a = Arrays.copyOf(this.a, this.n * 2);
+            }
+            this.a[this.n++] = v;
+        }
+
+        int size(){
+            return this.n;
+        }
+
+        /**
+         * Sorts the ints from an index to the end
+         */
+        void sort(int from){
+            Arrays.sort(this.a, from, this.n);
+        }
+
+        int[] toArray(){
+            return Arrays.copyOf(this.a, this.n);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package fa.nfa;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import fa.metrics.AutomatonMetrics;
+import fa.metrics.Metrics;
+
+/**
+ * Epsilon closures of every state of an NFA, computed once.
+ * The epsilon graph is collapsed into its strongly connected components
+ * with an iterative Tarjan traversal, so long epsilon chains cannot
+ * overflow the stack and every state of a component shares one closure.
+ * Closures are bitsets over the dense state ids (the order the states were
+ * added to the NFA) and are never modified after construction, which makes
+ * the index safe to share between threads.
+ *
+ * States without epsilon transitions store no bitset: their closure is the
+ * state itself. The same holds for states added to the NFA after the index
+ * was built, which is why only a new epsilon transition invalidates it.
+ */
+final class EClosureIndex {
+
+    private final NFAState[] states;
+    private final Map<NFAState,Integer> ids;
+    private final int[][] eSucc; //[state] -> direct epsilon successors, null if none
+    private final long[][] closure; //[state] -> closure bitset, null for a singleton
+
+    EClosureIndex(Set<NFAState> nfaStates){
+        AutomatonMetrics metrics = Metrics.get();
+        long started = metrics.clock();
+        int n = nfaStates.size();
+        this.states = nfaStates.toArray(new NFAState[n]);
+        this.ids = new IdentityHashMap<NFAState,Integer>(n * 2);
+        for(int i = 0; i < n; i++){
+            this.ids.put(this.states[i], i);
+        }
+        this.eSucc = new int[n][];
+        for(int i = 0; i < n; i++){
+            NFAState[] to = this.states[i].epsilonSuccessors();
+            if(to != null){
+                int[] succ = new int[to.length];
+                int k = 0;
+                for(NFAState t : to){
+                    succ[k++] = this.ids.get(t);
+                }
+                this.eSucc[i] = succ;
+            }
+        }
+        this.closure = new long[n][];
+        computeClosures(n);
+        metrics.closureIndex(n, metrics.clock() - started);
+    }
+
+    /**
+     * Tarjan's algorithm with an explicit call stack. Components are completed
+     * successors first, so each component's closure is the union of its
+     * members and the already finished closures of the components it reaches.
+     */
+    private void computeClosures(int n){
+        int words = Math.max(1, (n + 63) >>> 6);
+        int[] index = new int[n];
+        int[] low = new int[n];
+        Arrays.fill(index, -1);
+        boolean[] onStack = new boolean[n];
+        int[] sccStack = new int[n];
+        int sccTop = 0;
+        int[] callStack = new int[n];
+        int[] edge = new int[n]; //next successor to visit per call frame
+        int next = 0;
+
+        for(int root = 0; root < n; root++){
+            if(index[root] >= 0 || this.eSucc[root] == null){
+                continue;
+            }
+            int depth = 0;
+            callStack[depth] = root;
+            edge[depth] = 0;
+            index[root] = low[root] = next++;
+            sccStack[sccTop++] = root;
+            onStack[root] = true;
+
+            while(depth >= 0){
+                int v = callStack[depth];
+                int[] succ = this.eSucc[v];
+                if(succ != null && edge[depth] < succ.length){
+                    int w = succ[edge[depth]++];
+                    if(index[w] < 0){
+                        //descend into w
+                        index[w] = low[w] = next++;
+                        sccStack[sccTop++] = w;
+                        onStack[w] = true;
+                        callStack[++depth] = w;
+                        edge[depth] = 0;
+                    }else if(onStack[w]){
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                //all successors of v are done
+                if(low[v] == index[v]){
+                    long[] bits = new long[words];
+                    int top = sccTop;
+                    int w;
+                    do{
+                        w = sccStack[--top];
+                        bits[w >>> 6] |= 1L << w;
+                    }while(w != v);
+                    for(int i = top; i < sccTop; i++){
+                        int[] out = this.eSucc[sccStack[i]];
+                        if(out == null){
+                            continue;
+                        }
+                        for(int t : out){
+                            long[] reach = this.closure[t];
+                            if(reach != null){
+                                for(int k = 0; k < words; k++){
+                                    bits[k] |= reach[k];
+                                }
+                            }else{
+                                bits[t >>> 6] |= 1L << t;
+                            }
+                        }
+                    }
+                    for(int i = top; i < sccTop; i++){
+                        this.closure[sccStack[i]] = bits;
+                        onStack[sccStack[i]] = false;
+                    }
+                    sccTop = top;
+                }
+                depth--;
+                if(depth >= 0){
+                    int parent = callStack[depth];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the closure of a state to a subset under construction. States
+     * new to the subset are appended to order: the state itself, then its
+     * direct epsilon successors, then the rest of the closure by id.
+     * @param s the dense id of the state
+     * @param bits the members of the subset, updated in place
+     * @param order the members of the subset in the order they were added
+     * @param len the number of members already in order
+     * @return the new number of members in order
+     */
+    int appendClosure(int s, long[] bits, int[] order, int len){
+        len = append(s, bits, order, len);
+        if(s >= this.states.length || this.eSucc[s] == null){
+            return len;
+        }
+        for(int t : this.eSucc[s]){
+            len = append(t, bits, order, len);
+        }
+        long[] reach = this.closure[s];
+        for(int k = 0; k < reach.length; k++){
+            long word = reach[k] & ~bits[k];
+            while(word != 0){
+                int t = (k << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                len = append(t, bits, order, len);
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Adds the closure of a state to a bitset without tracking order
+     * @param s the dense id of the state
+     * @param bits the bitset to update
+     */
+    void orClosure(int s, long[] bits){
+        long[] reach = s < this.states.length ? this.closure[s] : null;
+        if(reach == null || this.eSucc[s] == null){
+            bits[s >>> 6] |= 1L << s;
+            return;
+        }
+        for(int k = 0; k < reach.length; k++){
+            bits[k] |= reach[k];
+        }
+    }
+
+    /**
+     * Builds the closure of a single state as a set
+     * @param s
+     * @return the states reachable from s on epsilon transitions, s included
+     */
+    Set<NFAState> closureOf(NFAState s){
+        Set<NFAState> ret = new LinkedHashSet<NFAState>();
+        Integer id = this.ids.get(s);
+        if(id == null){
+            ret.add(s);
+            return ret;
+        }
+        int[] order = new int[this.states.length];
+        long[] bits = new long[Math.max(1, (this.states.length + 63) >>> 6)];
+        int len = appendClosure(id, bits, order, 0);
+        for(int i = 0; i < len; i++){
+            ret.add(this.states[order[i]]);
+        }
+        return ret;
+    }
+
+    private static int append(int s, long[] bits, int[] order, int len){
+        long mask = 1L << s;
+        if((bits[s >>> 6] & mask) == 0){
+            bits[s >>> 6] |= mask;
+            order[len++] = s;
+        }
+        return len;
+    }
+}
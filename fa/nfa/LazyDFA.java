@@ -0,0 +1,178 @@
+package fa.nfa;
+
+import java.util.Arrays;
+
+import fa.metrics.Metrics;
+
+/**
+ * A DFA that is built while it is used.
+ * Instead of determinizing the whole NFA up front, every DFA state (a set
+ * of NFA states) and every transition between them is computed the first
+ * time the input needs it and kept in a cache. The cache holds at most
+ * maxStates DFA states; when it is full it is flushed and refilled, the
+ * way RE2 handles its DFA cache. If flushes come too often to pay off,
+ * the rest of the input is matched by plain NFA simulation instead.
+ *
+ * The cache makes a LazyDFA stateful: an instance must not be used by
+ * more than one thread at a time.
+ */
+public class LazyDFA {
+
+    private static final int UNKNOWN = -1;
+
+    /**
+     * A flush is considered thrashing if fewer characters than this many
+     * per cached state were matched since the previous flush
+     */
+    private static final int MIN_CHARS_PER_STATE = 10;
+
+    private final NFASimulator nfa;
+    private final int maxStates;
+    private final int symbols;
+    private final SubsetTable cache;
+    private final int[] trans; //state * symbols + symbol class -> state, UNKNOWN if not computed yet
+    private final boolean[] isFinal;
+    private final long[] next;
+    private int start;
+    private long flushes;
+    private long charsSinceFlush;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long fallbacks;
+
+    LazyDFA(NFASimulator nfa, int maxStates){
+        if(maxStates < 2){
+            throw new IllegalArgumentException("the cache needs room for at least 2 states");
+        }
+        this.nfa = nfa;
+        this.maxStates = maxStates;
+        this.symbols = nfa.symbolCount();
+        this.cache = new SubsetTable(Math.min(maxStates, 1024));
+        this.trans = new int[maxStates * Math.max(this.symbols, 1)];
+        this.isFinal = new boolean[maxStates];
+        this.next = new long[nfa.words()];
+        flush();
+    }
+
+    /**
+     * Determines whether the NFA accepts s. As in DFA.accepts the single
+     * character "e" stands for the empty string unless e is in the alphabet.
+     * @param s the input
+     * @return true if s is in the language of the NFA
+     */
+    public boolean accepts(CharSequence s){
+        int len = s.length();
+        if(len == 1 && s.charAt(0) == 'e' && this.nfa.symbolOf('e') < 0){
+            len = 0;
+        }
+        int st = this.start;
+        for(int i = 0; i < len; i++){
+            int sym = this.nfa.symbolOf(s.charAt(i));
+            if(sym < 0){
+                Metrics.get().match(i + 1, false, true);
+                return false;
+            }
+            int to = this.trans[st * this.symbols + sym];
+            if(to != UNKNOWN){
+                this.hits++;
+            }else{
+                this.misses++;
+                if(!this.nfa.step(this.cache.get(st), sym, this.next)){
+                    //no NFA state survives, nothing can accept any more
+                    Metrics.get().match(i + 1, false, true);
+                    return false;
+                }
+                long flushed = this.flushes;
+                to = addState(this.next);
+                if(to < 0){
+                    this.fallbacks++;
+                    this.charsSinceFlush += i;
+                    return this.nfa.acceptsFrom(this.next, s, i + 1, len);
+                }
+                if(flushed == this.flushes){
+                    //st is gone if the cache was just flushed
+                    this.trans[st * this.symbols + sym] = to;
+                }
+            }
+            st = to;
+        }
+        this.charsSinceFlush += len;
+        Metrics.get().match(len, this.isFinal[st], false);
+        return this.isFinal[st];
+    }
+
+    /**
+     * Finds or caches the DFA state of a set of NFA states
+     * @param set the NFA states
+     * @return the DFA state id or -1 if the cache thrashes
+     */
+    private int addState(long[] set){
+        int hash = SubsetTable.hash(set);
+        int id = this.cache.find(set, hash);
+        if(id >= 0){
+            return id;
+        }
+        if(this.cache.size() == this.maxStates){
+            if(this.charsSinceFlush < (long) MIN_CHARS_PER_STATE * this.maxStates){
+                return -1;
+            }
+            flush();
+        }
+        id = this.cache.add(set, hash);
+        Arrays.fill(this.trans, id * this.symbols, (id + 1) * this.symbols, UNKNOWN);
+        this.isFinal[id] = this.nfa.isFinal(set);
+        return id;
+    }
+
+    /**
+     * Empties the cache and caches the start state again
+     */
+    private void flush(){
+        this.flushes++;
+        this.evictions += this.cache.size();
+        this.charsSinceFlush = 0;
+        this.cache.clear();
+        long[] startSet = this.nfa.startSet();
+        this.start = this.cache.add(startSet, SubsetTable.hash(startSet));
+        Arrays.fill(this.trans, 0, this.symbols, UNKNOWN);
+        this.isFinal[this.start] = this.nfa.isFinal(startSet);
+    }
+
+    /**
+     * @return the number of DFA states in the cache
+     */
+    public int getCachedStates(){
+        return this.cache.size();
+    }
+
+    /**
+     * @return the number of transitions taken from the cache
+     */
+    public long getHits(){
+        return this.hits;
+    }
+
+    /**
+     * @return the number of transitions that had to be computed
+     */
+    public long getMisses(){
+        return this.misses;
+    }
+
+    /**
+     * @return the number of DFA states dropped by cache flushes
+     */
+    public long getEvictions(){
+        return this.evictions;
+    }
+
+    /**
+     * @return the number of inputs finished by NFA simulation because
+     * the cache was thrashing
+     */
+    public long getFallbacks(){
+        return this.fallbacks;
+    }
+}
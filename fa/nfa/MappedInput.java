@@ -0,0 +1,149 @@
+package fa.nfa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import fa.dfa.CompiledDFA;
+
+/**
+ * Reads an NFADriver input file through a memory mapping.
+ * The four header lines are returned as characters for NFAParser; the
+ * test strings after them are matched straight from the mapped bytes
+ * without creating a String per line, and the answers are written through
+ * a buffered channel.
+ * Files larger than one mapping are read through a sliding window, so a
+ * single test string must fit into WINDOW bytes.
+ *
+ * Like Scanner.hasNext() in the default driver mode, blank lines at the end
+ * of the file are not treated as test strings.
+ */
+final class MappedInput implements AutoCloseable {
+
+    private static final long WINDOW = 1L << 30;
+    private static final byte[] YES = "yes\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] NO = "no\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer buf;
+    private long base; //file offset of the mapped window
+    private long pos; //file offset of the next unread byte
+
+    MappedInput(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = this.channel.size();
+        map(0);
+    }
+
+    /**
+     * Reads the header lines, each byte as an ISO-8859-1 character
+     * @param lines the number of lines
+     * @return the lines with their line terminators, fewer if the file
+     * ends before them
+     * @throws IOException
+     */
+    CharBuffer header(int lines) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for(int n = 0; n < lines && this.pos < this.size; n++){
+            int end = lineEnd();
+            for(int i = (int) (this.pos - this.base); i < end; i++){
+                text.append((char) (this.buf.get(i) & 0xFF));
+            }
+            text.append('\n');
+            this.pos = this.base + end + 1;
+        }
+        return CharBuffer.wrap(text);
+    }
+
+    /**
+     * Matches every remaining line and writes yes or no for each
+     * @param matcher the DFA to run the lines through
+     * @param out where the answers go, it is not closed
+     * @throws IOException
+     */
+    void matchAll(CompiledDFA matcher, WritableByteChannel out) throws IOException {
+        long stop = lastContent();
+        ByteBuffer answers = ByteBuffer.allocateDirect(1 << 16);
+        while(this.pos < stop){
+            int end = lineEnd();
+            int from = (int) (this.pos - this.base);
+            boolean accepts = matcher.accepts(this.buf, from, stripCR(from, end));
+            if(answers.remaining() < YES.length){
+                drain(answers, out);
+            }
+            answers.put(accepts ? YES : NO);
+            this.pos = this.base + end + 1;
+        }
+        drain(answers, out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Finds the end of the line starting at pos, moving the window if the
+     * line runs past it
+     * @return the window index of the line feed or of the end of the file
+     */
+    private int lineEnd() throws IOException {
+        while(true){
+            int limit = this.buf.limit();
+            for(int i = (int) (this.pos - this.base); i < limit; i++){
+                if(this.buf.get(i) == '\n'){
+                    return i;
+                }
+            }
+            if(this.base + limit >= this.size){
+                return limit;
+            }
+            if(this.pos == this.base){
+                throw new IOException("a line at offset " + this.pos + " is longer than " + WINDOW + " bytes");
+            }
+            map(this.pos);
+        }
+    }
+
+    private int stripCR(int from, int end){
+        return end > from && this.buf.get(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * @return the file offset after the last byte that is not whitespace
+     */
+    private long lastContent() throws IOException {
+        long end = this.size;
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while(end > this.pos){
+            one.clear();
+            this.channel.read(one, end - 1);
+            if(!Character.isWhitespace(one.get(0) & 0xFF)){
+                break;
+            }
+            end--;
+        }
+        return end;
+    }
+
+    private void map(long offset) throws IOException {
+        this.base = offset;
+        this.pos = offset;
+        this.buf = this.channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW, this.size - offset));
+    }
+
+    private static void drain(ByteBuffer answers, WritableByteChannel out) throws IOException {
+        answers.flip();
+        while(answers.hasRemaining()){
+            out.write(answers);
+        }
+        answers.clear();
+    }
+}
@@ -0,0 +1,24 @@
+package fa.nfa;
+
+/**
+ * Selects how NFA.accepts tests strings
+ */
+public enum MatchMode {
+
+    /**
+     * Determinize when the DFA stays small, otherwise simulate.
+     * The DFA size is estimated by running the subset construction
+     * with a budget on the number of DFA states.
+     */
+    AUTO,
+
+    /**
+     * Always simulate the NFA on its sets of states
+     */
+    SIMULATE,
+
+    /**
+     * Always determinize and match with the compiled DFA
+     */
+    DETERMINIZE
+}
@@ -0,0 +1,233 @@
+package fa.nfa;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import fa.State;
+import fa.dfa.CompiledDFA;
+import fa.dfa.DFA;
+import fa.metrics.Metrics;
+
+/**
+ * Matches a string against many patterns in one pass.
+ * The pattern NFAs are copied into one union NFA below a fresh start state
+ * with an epsilon transition to the start state of each pattern, and the
+ * union is determinized once. Every final state of the resulting DFA
+ * carries the ids of the patterns it accepts for, so one scan of the input
+ * reports all matching patterns instead of one scan per pattern.
+ *
+ * Pattern ids are the positions in the list given to the constructor.
+ * The states of pattern i are named i:name in the union, so the patterns
+ * may use the same state names. An 'e' transition of a pattern stays
+ * whatever it was in that pattern: an epsilon transition or, for an NFA
+ * built with NFA(false), a transition on the symbol e.
+ *
+ * A MultiPattern never changes after it is built and can be shared by any
+ * number of threads. Later changes to the pattern NFAs are not seen.
+ */
+public final class MultiPattern {
+
+    private final int patterns;
+    private final DFA dfa;
+    private final CompiledDFA table;
+    private final BitSet[] matchesOf; //compiled state -> patterns it accepts for, null if none
+    private final int matchSets; //distinct sets in matchesOf
+
+    /**
+     * Builds and determinizes the union of the patterns
+     * @param patterns the pattern NFAs, each with a start state
+     * @throws IllegalArgumentException if there are no patterns or one
+     * has no start state
+     */
+    public MultiPattern(List<? extends NFA> patterns){
+        if(patterns.isEmpty()){
+            throw new IllegalArgumentException("no patterns");
+        }
+        this.patterns = patterns.size();
+        NFA union = new NFA(false);
+        union.addStartState("start");
+        //pattern of every final state of the union by NFA state id, -1 for the others
+        int[] patternOf = new int[1 + countStates(patterns)];
+        patternOf[0] = -1;
+        int id = 1;
+        for(int p = 0; p < patterns.size(); p++){
+            NFA nfa = patterns.get(p);
+            if(nfa.getStartState() == null){
+                throw new IllegalArgumentException("pattern " + p + " has no start state");
+            }
+            String prefix = p + ":";
+            for(State s : nfa.getStates()){
+                NFAState q = (NFAState) s;
+                if(q.getIsFinal()){
+                    union.addFinalState(prefix + q.getName());
+                    patternOf[id++] = p;
+                }else{
+                    union.addState(prefix + q.getName());
+                    patternOf[id++] = -1;
+                }
+            }
+            union.addEpsilonTransition("start", prefix + nfa.getStartState().getName());
+            copyTransitions(nfa, prefix, union);
+        }
+
+        SubsetConstruction.Snapshot subsets = union.snapshot();
+        this.dfa = union.getDFA();
+        this.table = this.dfa.freeze();
+
+        //the DFA states are numbered like the subsets, so subset i is state i of the table
+        Map<BitSet,BitSet> shared = new HashMap<BitSet,BitSet>();
+        this.matchesOf = new BitSet[subsets.sets.length];
+        for(int q = 0; q < this.matchesOf.length; q++){
+            BitSet matches = new BitSet(this.patterns);
+            long[] set = subsets.sets[q];
+            for(int w = 0; w < set.length; w++){
+                long word = set[w];
+                while(word != 0){
+                    int t = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    if(patternOf[t] >= 0){
+                        matches.set(patternOf[t]);
+                    }
+                }
+            }
+            if(!matches.isEmpty()){
+                BitSet known = shared.putIfAbsent(matches, matches);
+                this.matchesOf[q] = known == null ? matches : known;
+            }
+        }
+        this.matchSets = shared.size();
+    }
+
+    private static int countStates(List<? extends NFA> patterns){
+        int n = 0;
+        for(NFA nfa : patterns){
+            n += nfa.getStates().size();
+        }
+        return n;
+    }
+
+    /**
+     * Copies every transition of a pattern into the union
+     */
+    private static void copyTransitions(NFA nfa, String prefix, NFA union){
+        for(State s : nfa.getStates()){
+            NFAState q = (NFAState) s;
+            String from = prefix + q.getName();
+            NFAState[] eps = q.epsilonSuccessors();
+            if(eps != null){
+                for(NFAState t : eps){
+                    union.addEpsilonTransition(from, prefix + t.getName());
+                }
+            }
+            for(char c : nfa.getABC()){
+                NFAState[] to = q.successors(c);
+                if(to != null){
+                    for(NFAState t : to){
+                        union.addTransition(from, c, prefix + t.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of patterns
+     */
+    public int getPatternCount(){
+        return this.patterns;
+    }
+
+    /**
+     * @return the determinized union, frozen
+     */
+    public DFA getDFA(){
+        return this.dfa;
+    }
+
+    /**
+     * @return the compiled form of getDFA(), whose state ids getPatterns takes
+     */
+    public CompiledDFA getCompiled(){
+        return this.table;
+    }
+
+    /**
+     * @param state a state id of getCompiled()
+     * @return the ids of the patterns the state accepts for, empty if none
+     */
+    public BitSet getPatterns(int state){
+        BitSet matches = this.matchesOf[state];
+        return matches == null ? new BitSet() : (BitSet) matches.clone();
+    }
+
+    /**
+     * Finds every pattern that accepts a string. As in DFA.accepts the
+     * single character "e" stands for the empty string unless e is in the
+     * alphabet; characters outside the alphabet of all patterns reject
+     * the input for every pattern.
+     * @param s the input
+     * @return the ids of the matching patterns
+     */
+    public BitSet matches(CharSequence s){
+        int state = run(s);
+        return state < 0 ? new BitSet() : getPatterns(state);
+    }
+
+    /**
+     * Calls an action with the id of every pattern that accepts a string,
+     * in increasing order, without allocating
+     * @param s the input
+     * @param action receives the pattern ids
+     */
+    public void forEachMatch(CharSequence s, IntConsumer action){
+        int state = run(s);
+        BitSet matches = state < 0 ? null : this.matchesOf[state];
+        if(matches != null){
+            for(int p = matches.nextSetBit(0); p >= 0; p = matches.nextSetBit(p + 1)){
+                action.accept(p);
+            }
+        }
+    }
+
+    /**
+     * @param s the input
+     * @return true if at least one pattern accepts s
+     */
+    public boolean matchesAny(CharSequence s){
+        int state = run(s);
+        return state >= 0 && this.matchesOf[state] != null;
+    }
+
+    /**
+     * Runs the union DFA over a string, stopping at a dead state
+     * @return the state reached or -1 if no pattern can accept
+     */
+    private int run(CharSequence s){
+        CompiledDFA t = this.table;
+        int len = s.length();
+        if(len == 1 && s.charAt(0) == 'e' && t.symbolOf('e') < 0){
+            len = 0;
+        }
+        int st = t.getStartState();
+        int i = 0;
+        while(i < len && st >= 0 && !t.isDead(st)){
+            int sym = t.symbolOf(s.charAt(i++));
+            st = sym < 0 ? -1 : t.next(st, sym);
+        }
+        boolean dead = st < 0 || t.isDead(st);
+        Metrics.get().match(i, !dead && this.matchesOf[st] != null, dead);
+        if(dead && i < len){
+            Metrics.get().shortCircuit(len - i);
+        }
+        return dead ? -1 : st;
+    }
+
+    @Override
+    public String toString(){
+        return this.patterns + " patterns, " + this.matchesOf.length + " DFA states, "
+                + this.matchSets + " distinct match sets";
+    }
+}
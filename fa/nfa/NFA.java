@@ -1,14 +1,17 @@
 package fa.nfa;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import fa.State;
+import fa.dfa.CompiledDFA;
 import fa.dfa.DFA;
+import fa.metrics.Metrics;
 
 /**
  * @author Nathan Maroko
@@ -20,16 +23,50 @@ public class NFA implements NFAInterface{
     private Set<NFAState> states;
 	private NFAState start;
 	private Set<Character> ordAbc;
-    private Set<NFAState> eClosure;
     private Set<NFAState> finalStates;
+    private Map<String,NFAState> index; //state name -> state, kept in step with states
+    private volatile EClosureIndex closureIndex; //built on demand, dropped by new e transitions
+    private MatchMode matchMode;
+    private final boolean eIsEpsilon; //addTransition reads 'e' as epsilon
+    private volatile NFASimulator simulator; //matchers used by accepts, dropped on every change
+    private volatile CompiledDFA compiled;
+    private DFA dfa; //returned by the last getDFA, dropped on every change
+    private long dfaStamp; //modification count of dfa when it was returned
+    private SubsetConstruction.Snapshot snapshot; //subsets behind dfa, dropped by new e transitions
+    private final List<NFAState> touchedStates; //states that gained a transition since the snapshot
+    private final StringBuilder touchedSymbols; //the symbol of each of those transitions
 
-    private boolean containsEmpty;
+    /**
+     * The AUTO mode determinizes only if the DFA has at most this many
+     * states per NFA state, with a floor of MIN_DFA_BUDGET states
+     */
+    private static final int DFA_BUDGET_PER_STATE = 16;
+    private static final int MIN_DFA_BUDGET = 1024;
+
+    /**
+     * getDFA builds from scratch once more transitions than this were
+     * added since the last DFA
+     */
+    private static final int MAX_TOUCHED = 1 << 16;
 
     public NFA(){
+        this(true);
+    }
+
+    /**
+     * @param eIsEpsilon true if addTransition reads the symbol e as an
+     * epsilon transition, as the input files do, false to make e an
+     * ordinary input symbol; addEpsilonTransition works either way
+     */
+    public NFA(boolean eIsEpsilon){
+        this.eIsEpsilon = eIsEpsilon;
         this.states = new LinkedHashSet<NFAState>();
         this.ordAbc = new LinkedHashSet<Character>();
         this.finalStates = new LinkedHashSet<NFAState>();
-        this.containsEmpty = false;
+        this.index = new HashMap<String,NFAState>();
+        this.matchMode = MatchMode.AUTO;
+        this.touchedStates = new ArrayList<NFAState>();
+        this.touchedSymbols = new StringBuilder();
     }
 
     @Override
@@ -37,7 +74,7 @@ public class NFA implements NFAInterface{
         NFAState s = checkIfExists(name);
         if(s == null){
             this.start = new NFAState(name);
-            this.states.add(this.start);
+            addState(this.start);
         }else{
             System.out.println("WARNING: A state with name " + name + " already exists in the DFA");
         }
@@ -47,7 +84,7 @@ public class NFA implements NFAInterface{
     public void addState(String name) {
         NFAState s = checkIfExists(name);
         if(s == null){
-            this.states.add(new NFAState(name));
+            addState(new NFAState(name));
         }else{
             System.out.println("WARNING: A state with name " + name + " already exists in the DFA");
         }
@@ -58,7 +95,7 @@ public class NFA implements NFAInterface{
         NFAState s = checkIfExists(name);
         if(s == null){
             NFAState temp = new NFAState(true, name);
-            this.states.add(temp);
+            addState(temp);
             this.finalStates.add(temp);
         }else{
             System.out.println("WARNING: A state with name " + name + " already exists in the DFA");
@@ -67,21 +104,75 @@ public class NFA implements NFAInterface{
 
     @Override
     public void addTransition(String fromState, char onSymb, String toState) {
-        NFAState from = checkIfExists(fromState);
-		NFAState to = checkIfExists(toState);
-		if(from == null){
-			System.err.println("ERROR: No DFA state exists with name " + fromState);
-			System.exit(2);
-		} else if (to == null){
-			System.err.println("ERROR: No DFA state exists with name " + toState);
-			System.exit(2);
-		}
-        from.addTransition(onSymb, to);
-
-        if(!ordAbc.contains(onSymb)){
+        NFAState from = existing(fromState);
+        NFAState to = existing(toState);
+        if(this.eIsEpsilon && onSymb == 'e'){
+            from.addEpsilonTransition(to);
+            epsilonChanged();
+        }else{
+            from.addTransition(onSymb, to);
             ordAbc.add(onSymb);
+            touched(from, onSymb);
         }
-        
+        changed();
+    }
+
+    /**
+     * Adds an epsilon transition, whatever symbol stands for epsilon
+     * @param fromState the label of the state where the transition starts
+     * @param toState the label of the state where the transition ends
+     * @throws IllegalArgumentException if either state does not exist
+     */
+    public void addEpsilonTransition(String fromState, String toState) {
+        NFAState from = existing(fromState);
+        NFAState to = existing(toState);
+        from.addEpsilonTransition(to);
+        epsilonChanged();
+        changed();
+    }
+
+    /**
+     * Adds many transitions at once. All state names are resolved
+     * before the first transition is added.
+     * @param fromStates the labels of the states where the transitions start
+     * @param onSymbs the symbols of the transitions
+     * @param toStates the labels of the states where the transitions end
+     * @throws IllegalArgumentException if a state does not exist, in which
+     * case no transition is added
+     */
+    public void addTransitions(String[] fromStates, char[] onSymbs, String[] toStates) {
+        if(fromStates.length != onSymbs.length || fromStates.length != toStates.length){
+            throw new IllegalArgumentException("transition arrays differ in length");
+        }
+        NFAState[] from = new NFAState[fromStates.length];
+        NFAState[] to = new NFAState[toStates.length];
+        for(int i = 0; i < from.length; i++){
+            from[i] = existing(fromStates[i]);
+            to[i] = existing(toStates[i]);
+        }
+        addTransitions(from, onSymbs, to, from.length);
+    }
+
+    /**
+     * Adds the first count transitions of three parallel arrays whose
+     * states were already looked up
+     * @param from the states where the transitions start, all of this NFA
+     * @param onSymbs the symbols of the transitions
+     * @param to the states where the transitions end, all of this NFA
+     * @param count the number of transitions
+     */
+    void addTransitions(NFAState[] from, char[] onSymbs, NFAState[] to, int count) {
+        for(int i = 0; i < count; i++){
+            if(this.eIsEpsilon && onSymbs[i] == 'e'){
+                from[i].addEpsilonTransition(to[i]);
+                epsilonChanged();
+            }else{
+                from[i].addTransition(onSymbs[i], to[i]);
+                this.ordAbc.add(onSymbs[i]);
+                touched(from[i], onSymbs[i]);
+            }
+        }
+        changed();
     }
 
     @Override
@@ -112,277 +203,228 @@ public class NFA implements NFAInterface{
         return this.ordAbc;
     }
 
+    /**
+     * Returns the equivalent DFA. The DFA is cached: as long as neither
+     * this NFA nor the DFA were changed, every call returns the same DFA.
+     * After transitions or states were added, only the subsets that
+     * contain a state with a new transition are explored again; a new
+     * epsilon transition makes the next call build the DFA from scratch.
+     * Either way the result is the DFA a new NFA with the same states and
+     * transitions would return.
+     * @return equivalent DFA
+     */
     @Override
-    public DFA getDFA() {
-        Map<NFAState,Set<NFAState>> eClosures = new HashMap<NFAState,Set<NFAState>>(); //Keep track of eClosures of each state
-        Set<Set<NFAState>> includedStates = new LinkedHashSet<Set<NFAState>>(); //Keep track of what states we have in the new machine
-        Queue<Set<NFAState>> queue = new LinkedList<Set<NFAState>>(); //Queue used for the Breadth-First Traversal
-        Set<Set<NFAState>> visited = new LinkedHashSet<Set<NFAState>>(); //Keep track of what states we have visited
-        this.containsEmpty = false; //Reset contains empty to false
-
-        DFA convertedDFA = new DFA();
-        NFAState start = checkIfExists(this.start.getName());
-        Set<NFAState> eClosureStart = eClosure(start);
-        
-        convertedDFA.addStartState(eClosureStart.toString());
-        includedStates.add(eClosureStart);
-
-        visited.add(eClosureStart);
-
-        for(NFAState s: this.states){ //Calculate all eClosures
-            eClosures.put(s, eClosure(s)); //Map current state to eclosure value
+    public synchronized DFA getDFA() {
+        DFA ret = cachedDFA();
+        if(ret == null){
+            SubsetConstruction sc = new SubsetConstruction(closureIndex(), this.states, this.start, this.ordAbc);
+            ret = this.snapshot == null ? sc.run() : sc.update(this.snapshot, this.touchedStates, this.touchedSymbols);
+            cache(ret, sc);
         }
+        return ret;
+    }
 
+    /**
+     * Builds the equivalent DFA with the subset construction spread over
+     * a fork-join pool. The result is the same DFA getDFA() returns, and
+     * is cached the same way.
+     * @param pool the pool that runs the construction
+     * @return equivalent DFA
+     */
+    public synchronized DFA getDFA(ForkJoinPool pool) {
+        DFA ret = cachedDFA();
+        if(ret == null){
+            if(this.snapshot != null){
+                return getDFA();
+            }
+            SubsetConstruction sc = new SubsetConstruction(closureIndex(), this.states, this.start, this.ordAbc);
+            ret = sc.runParallel(pool);
+            cache(ret, sc);
+        }
+        return ret;
+    }
 
-        //Breadth-First Traversal of NFA
-        for(Character onSymb: this.ordAbc){ //Get Set of states starting with entry state
+    /**
+     * @return the subsets behind the DFA getDFA() returns now, numbered
+     * like its states
+     */
+    synchronized SubsetConstruction.Snapshot snapshot() {
+        getDFA();
+        return this.snapshot;
+    }
 
-            Set<NFAState> toStateDFA = new LinkedHashSet<NFAState>();
-            for(NFAState current: eClosureStart){ //Get all of the to states from the singletons that make up the currentState
-                Set<NFAState> add = current.getToStates(onSymb);
-                if(add != null){
-                    toStateDFA.addAll(add);
-                }
-            }
+    /**
+     * @return the DFA of the last getDFA if neither it nor the NFA were
+     * changed since, null otherwise
+     */
+    private DFA cachedDFA(){
+        DFA ret = this.dfa;
+        return ret != null && ret.getModCount() == this.dfaStamp ? ret : null;
+    }
 
-            if(onSymb == 'e'){// If the onSymb is e then ignore
-                continue;
-            }else if(toStateDFA.isEmpty() && onSymb != 'e'){ //Else, add the empty state as a transition from the start state
-                if(!this.containsEmpty){ //If empty state isn't in machine yet
-                    convertedDFA.addState("[]"); //Create empty state in machine
-                    convertedDFA = addEmptyTransitions(convertedDFA); //Add transitions for each character on empty state
-                    this.containsEmpty = true;
-
-                    convertedDFA.addTransition(eClosureStart.toString(), onSymb, "[]"); //Add transition from current to empty state on the characterSymb
-                }else{
-                    convertedDFA.addTransition(eClosureStart.toString(), onSymb, "[]");
-                }
-            }
+    private void cache(DFA built, SubsetConstruction sc){
+        this.dfa = built;
+        this.dfaStamp = built.getModCount();
+        this.snapshot = sc.snapshot();
+        this.touchedStates.clear();
+        this.touchedSymbols.setLength(0);
+    }
 
-            //Now we need to handle the transitions that the current state is going to take
-            Set<NFAState> transition = new LinkedHashSet<NFAState>();
-            for(NFAState state: toStateDFA){ //Check each eClosure for each character in the set
-                transition.addAll(eClosures.get(state));
+    @Override
+    public boolean accepts(CharSequence s) {
+        CompiledDFA dfa = this.compiled;
+        if(dfa != null){
+            return dfa.accepts(s);
+        }
+        NFASimulator sim = this.simulator;
+        if(sim != null){
+            return sim.accepts(s);
+        }
+        if(this.matchMode != MatchMode.SIMULATE){
+            int budget = Integer.MAX_VALUE;
+            if(this.matchMode == MatchMode.AUTO){
+                budget = Math.max(MIN_DFA_BUDGET, DFA_BUDGET_PER_STATE * this.states.size());
             }
-
-            if(includedStates.contains(transition)){ //If the transition state is in DFA already
-                transition = getIncludedState(includedStates, transition); //Find the exact state name in machine
-                convertedDFA.addTransition(eClosureStart.toString(), onSymb, transition.toString()); //Add a transition from the currentState to transitionState
-            }else{ //Transition state is not in DFA
-                if(checkIfFinal(transition)){
-                    convertedDFA.addFinalState(transition.toString());
-                }else{
-                    convertedDFA.addState(transition.toString()); //Create the State in the DFA
-                }
-                includedStates.add(transition); //Add the state to the included states
-                convertedDFA.addTransition(eClosureStart.toString(), onSymb, transition.toString()); //Add a transition from the currentState to transitionState
+            DFA built = new SubsetConstruction(closureIndex(), this.states, this.start, this.ordAbc).run(budget);
+            if(built != null){
+                dfa = built.compile();
+                this.compiled = dfa;
+                return dfa.accepts(s);
             }
-            queue.add(transition);
         }
+        sim = new NFASimulator(closureIndex(), this.states, this.start, this.ordAbc);
+        this.simulator = sim;
+        return sim.accepts(s);
+    }
 
+    /**
+     * Creates a DFA for this NFA that is only determinized as far as the
+     * inputs it matches need
+     * @param maxStates the most DFA states the lazy DFA keeps at a time
+     * @return a new lazy DFA for the NFA as it is now
+     */
+    public LazyDFA getLazyDFA(int maxStates) {
+        return new LazyDFA(new NFASimulator(closureIndex(), this.states, this.start, this.ordAbc), maxStates);
+    }
 
-        //While we still have new states popping in the queue
-        while(!queue.isEmpty()){
-            Set<NFAState> s = queue.poll(); //Pull out first set of states in queue
-
-                if(!checkIfVisitedQueue(visited, s)){ //If we haven't visited the currentState
-                    visited.add(s); //Mark this state as visited
-
-                    //Check if the eClosure of the state is included in the constructed DFA
-                    Set<NFAState> currentEClosure = new LinkedHashSet<NFAState>();
-                    for(NFAState state: s){
-                        currentEClosure.addAll(eClosure(state));
-                    }
-
-                    if(includedStates.contains(currentEClosure)){ //If included in DFA already
-                        currentEClosure = getIncludedState(includedStates, currentEClosure); //Find the exact string name of the currentEClosure
-                    }else{
-                        if(checkIfFinal(currentEClosure)){
-                            convertedDFA.addFinalState(currentEClosure.toString());
-                        }else{
-                            convertedDFA.addState(currentEClosure.toString()); //Create the State in the DFA
-                        }
-                        includedStates.add(currentEClosure);
-                    }
-
-                    //This section handles the transitions that the current state will take
-                    for(Character onSymb: this.ordAbc){ //Walk through each possible transition on currentState
-
-                        Set<NFAState> toStateDFA = new LinkedHashSet<NFAState>();
-                        for(NFAState current: currentEClosure){ //Get all of the to states from the singletons that make up the currentState
-                            Set<NFAState> add = current.getToStates(onSymb);
-                            if(add != null){
-                                toStateDFA.addAll(add);
-                            }
-                        }
-
-                        Set<NFAState> transition = new LinkedHashSet<NFAState>();
-                        for(NFAState state: toStateDFA){ //Check each eClosure for each character in the set
-                            transition.addAll(eClosures.get(state));
-                        }
-            
-                        //If there is no valid transitions inside transition- we want to add a transition to the empty state
-                        if(onSymb == 'e'){// If the onSymb is e then ignore
-                            continue;
-                        }else if(transition.isEmpty() && onSymb != 'e'){ //Else, add the empty state as a transition from the start state
-                            if(!this.containsEmpty){ //If empty state isn't in machine yet
-                                convertedDFA.addState("[]"); //Create empty state in machine
-                                convertedDFA = addEmptyTransitions(convertedDFA); //Add transitions for each character on empty state
-                                this.containsEmpty = true;
-            
-                                convertedDFA.addTransition(currentEClosure.toString(), onSymb, "[]"); //Add transition from current to empty state on the characterSymb
-                            }else{
-                                convertedDFA.addTransition(currentEClosure.toString(), onSymb, "[]");
-                            }
-                            continue;
-                        }
-
-                        if(includedStates.contains(transition)){ //If the transition state is in DFA already
-                            transition = getIncludedState(includedStates, transition); //Find the exact state name in machine
-                            convertedDFA.addTransition(currentEClosure.toString(), onSymb, transition.toString()); //Add a transition from the currentState to transitionState
-                        }else{ //Transition state is not in DFA
-                            if(checkIfFinal(transition)){
-                                convertedDFA.addFinalState(transition.toString());
-                            }else{
-                                convertedDFA.addState(transition.toString()); //Create the State in the DFA
-                            }
-                            includedStates.add(transition); //Add the state to the included states
-                            convertedDFA.addTransition(currentEClosure.toString(), onSymb, transition.toString()); //Add a transition from the currentState to transitionState
-                        }
-
-                        queue.add(transition); //Add ToStates to queue
-                    }
-                }
-        }
-        return convertedDFA;
+    /**
+     * Chooses how accepts tests strings, AUTO by default
+     * @param mode
+     */
+    public void setMatchMode(MatchMode mode) {
+        this.matchMode = mode;
+        changed();
+    }
+
+    /**
+     * @return how accepts tests strings
+     */
+    public MatchMode getMatchMode() {
+        return this.matchMode;
     }
 
     @Override
     public Set<NFAState> getToState(NFAState from, char onSymb) {
+        if(this.eIsEpsilon && onSymb == 'e'){
+            return from.getEpsilonStates();
+        }
         return from.getToStates(onSymb);
     }
 
     @Override
     public Set<NFAState> eClosure(NFAState s) {
-        this.eClosure = new LinkedHashSet<NFAState>();
-        Set<NFAState> visited = new LinkedHashSet<NFAState>();
-        eClosure.add(s);
-        eClosureHelper(s, visited);
-        return eClosure;
+        Set<NFAState> closure = closureIndex().closureOf(s);
+        Metrics.get().eClosure(closure.size());
+        return closure;
     }
 
     /**
-     * This helper method is called inside eClosure and is called recursively
-     * Implements the depth-first search algorithm
-     * @param s
-     * @param visited
+     * Returns the epsilon closure index, building it if an e transition
+     * was added since it was last built
+     * @return the closure index for the current states
      */
-    private void eClosureHelper(NFAState s, Set<NFAState> visited) {
-        Set<NFAState> current = s.getToStates('e');
-        if(current == null){
-            return;
-        }
-        for(NFAState state : current){
-            this.eClosure.add(state);
-            if(checkIfVisited(visited, state)){
-                eClosureHelper(state, visited);
-                visited.add(state);
-            }
+    private EClosureIndex closureIndex(){
+        EClosureIndex index = this.closureIndex;
+        if(index == null){
+            index = new EClosureIndex(this.states);
+            this.closureIndex = index;
         }
+        return index;
     }
 
     /**
-     * A private method that checks if a state has been visited inside eClosureHelper
-     * @param visited
-     * @param state
-     * @return
+     * Checks if a state exists
+     * @param name
+     * @return The state if it's found inside the states set, null otherwise
      */
-    private boolean checkIfVisited(Set<NFAState> visited, NFAState state){
-        boolean ret = false;
-        for(NFAState s : visited){
-			if(s.getName().equals(state.getName())){
-				ret = true;
-				break;
-			}
-		}
-        return ret;
-    }
+    NFAState checkIfExists(String name){
+		return this.index.get(name);
+	}
 
     /**
-     * A private method that checks if the queue has visited a set of states yet
-     * @param visited
-     * @param states
-     * @return true if the set has been visited and false if the set hasnt visited it
+     * Looks up a state a transition refers to
+     * @param name
+     * @return the state
+     * @throws IllegalArgumentException if there is no state with that name
      */
-    private boolean checkIfVisitedQueue(Set<Set<NFAState>> visited, Set<NFAState> states){
-        boolean retBool = false;
-        for(Set<NFAState> current: visited){
-            if(current.equals(states)){
-                retBool = true;
-            }
+    private NFAState existing(String name){
+        NFAState s = this.index.get(name);
+        if(s == null){
+            throw new IllegalArgumentException("No NFA state exists with name " + name);
         }
-        return retBool;
+        return s;
     }
 
     /**
-     * A private method that checks if 
-     * @param name
-     * @return The state if it's found inside the states set
+     * Adds a new state to the states set and the name index
+     * @param s
      */
-    private NFAState checkIfExists(String name){
-		NFAState ret = null;
-		for(NFAState s : states){
-			if(s.getName().equals(name)){
-				ret = s;
-				break;
-			}
-		}
-		return ret;
-	}
+    private void addState(NFAState s){
+        this.states.add(s);
+        this.index.put(s.getName(), s);
+        changed();
+    }
 
     /**
-     * A private method that adds a self-transition to the empty state for each character
-     * @param current
-     * @return The modified DFA
+     * Drops the matchers built for accepts and the cached DFA after any
+     * change to the NFA
      */
-    private DFA addEmptyTransitions(DFA current){
-        for(Character c : this.ordAbc){
-            if(c != 'e'){
-                current.addTransition("[]", c, "[]");
-            }
-        }
-        return current;
+    private void changed(){
+        this.simulator = null;
+        this.compiled = null;
+        this.dfa = null;
     }
 
     /**
-     * Finds the state that has been already been added inside the DFA and returns the set
-     * @param includedStates
-     * @param set
-     * @return The Set included inside the DFA
+     * Records a new transition for the next incremental getDFA
+     * @param from the state that gained the transition
+     * @param onSymb its symbol
      */
-    private Set<NFAState> getIncludedState(Set<Set<NFAState>> includedStates, Set<NFAState> set){
-        for(Set<NFAState> current: includedStates){
-            if(current.equals(set)){
-                return current;
-            }
+    private void touched(NFAState from, char onSymb){
+        if(this.snapshot == null){
+            return;
+        }
+        if(this.touchedStates.size() == MAX_TOUCHED){
+            dropSnapshot();
+        }else{
+            this.touchedStates.add(from);
+            this.touchedSymbols.append(onSymb);
         }
-        return null;
     }
 
     /**
-     * Checks if the set of states contains a final state
-     * @param current
-     * @return true if the set contains a final state or false if the set doesnt contain a final state
+     * A new epsilon transition changes closures, so both the closure
+     * index and the subsets of the last DFA are of no further use
      */
-    private boolean checkIfFinal(Set<NFAState> current){
-        boolean retVal = false;
-        for(NFAState currentState: this.finalStates){
-            if(current.contains(currentState)){
-                retVal = true;
-                break;
-            }
-        }
-        return retVal;
+    private void epsilonChanged(){
+        this.closureIndex = null;
+        dropSnapshot();
+    }
+
+    private void dropSnapshot(){
+        this.snapshot = null;
+        this.touchedStates.clear();
+        this.touchedSymbols.setLength(0);
     }
     
 }
@@ -1,11 +1,27 @@
 package fa.nfa;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
-import java.util.StringTokenizer;
+import java.util.function.Consumer;
 
+import fa.dfa.CompiledDFA;
 import fa.dfa.DFA;
+import fa.dfa.DFAImage;
 
 /**
  * Sept 1, 2016
@@ -18,58 +34,171 @@ import fa.dfa.DFA;
 public class NFADriver {
 
 	/**
-	 * @param args - a file name containing a DFA encoding and a set of strings.
-	 * @throws FileNotFoundException 
+	 * @param args - a file name containing a DFA encoding and a set of strings,
+	 * optionally preceded by -s to only test the strings on the NFA without
+	 * building and printing the DFA, or by -m to read the file through a
+	 * memory mapping, which is much faster for large sets of strings.
+	 * With -c input-file image-file the minimized DFA is saved as a binary
+	 * image instead, and -i image-file strings-file tests the strings of
+	 * the second file on a saved image without building anything.
+	 * An input file whose header lines cannot be read, for example because
+	 * a transition refers to a state it does not declare, ends the driver
+	 * with exit code 2.
+	 * @throws IOException 
 	 */
-	public static void main(String[] args) throws FileNotFoundException {
+	public static void main(String[] args) throws IOException {
+		try {
+			run(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println("ERROR: " + e.getMessage());
+			System.exit(2);
+		}
+	}
+
+	private static void run(String[] args) throws IOException {
+		if(args.length == 3 && args[0].equals("-c")){
+			compileImage(args[1], args[2]);
+			return;
+		}
+		if(args.length == 3 && args[0].equals("-i")){
+			matchImage(args[1], args[2]);
+			return;
+		}
 		//The file name is passed as an argument
-		String fileName = args[0];
+		String option = args.length > 1 ? args[0] : "";
+		String fileName = args[args.length - 1];
 		File file = new File(fileName);
-		if(file.exists()){
-			//create a DFA instance -- you need to write DFA.java that
-			//implements DFAInterface.java
-			NFA nfa = new NFA();
-			Scanner scan = new Scanner(file);
-			//the first line is the set of final states
-			//get the string of the final states and split it on a space
-			String finalStates = scan.nextLine().trim();
-			//using tokenizer to split the string
-			StringTokenizer tk = new StringTokenizer(finalStates, " ");
-			while(tk.hasMoreTokens()){
-				nfa.addFinalState(tk.nextToken());
+		if(!file.exists()){
+			System.err.println(file + " does not exists - please check the file path");
+		} else if(option.equals("-m")){
+			try(MappedInput in = new MappedInput(file.toPath())){
+				NFA nfa = new NFAParser().parse(in.header(4));
+				DFA dfa = nfa.getDFA();
+				printDFA(dfa);
+				FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+				in.matchAll(dfa.compile(), out);
 			}
-			
-			//the second line is the start state
-			String startStateName = scan.nextLine().trim();
-			nfa.addStartState(startStateName);
-
-			//get the string of other states and split in on space too
-			String otherStates = scan.nextLine().trim();
-			tk = new StringTokenizer(otherStates, " ");
-			while(tk.hasMoreTokens()){
-				nfa.addState(tk.nextToken());
+		} else {
+			try(BufferedReader in = open(file)){
+				NFA nfa = new NFAParser().parse(header(in));
+				if(option.equals("-s")){
+					//let the NFA pick simulation or determinization by itself
+					forEachLine(in, line -> System.out.println(nfa.accepts(line)?"yes":"no"));
+					return;
+				}
+				DFA dfa = nfa.getDFA();
+				//print out dfa in the specified format.
+				printDFA(dfa);
+				//now process the strings on the same DFA
+				CompiledDFA matcher = dfa.compile();
+				forEachLine(in, line -> System.out.println(matcher.accepts(line)?"yes":"no"));
 			}
+		}
+	}
+
+	/**
+	 * Determinizes and minimizes the NFA of an input file and saves the
+	 * DFA as a binary image, the test strings are not read
+	 * @param fileName the input file
+	 * @param imageName where the image is written
+	 * @throws IOException
+	 */
+	private static void compileImage(String fileName, String imageName) throws IOException {
+		File file = new File(fileName);
+		if(!file.exists()){
+			System.err.println(file + " does not exists - please check the file path");
+			return;
+		}
+		NFA nfa;
+		try(BufferedReader in = open(file)){
+			nfa = new NFAParser().parse(header(in));
+		}
+		DFA dfa = nfa.getDFA();
+		dfa.minimize();
+		dfa.save(Paths.get(imageName), true);
+	}
+
+	/**
+	 * Maps a saved DFA image and tests every line of a file on it
+	 * @param imageName an image written with -c
+	 * @param fileName the test strings, one per line
+	 * @throws IOException
+	 */
+	private static void matchImage(String imageName, String fileName) throws IOException {
+		File file = new File(fileName);
+		if(!file.exists() || !new File(imageName).exists()){
+			System.err.println((file.exists() ? imageName : fileName) + " does not exists - please check the file path");
+			return;
+		}
+		DFAImage image = DFAImage.map(Paths.get(imageName));
+		Scanner scan = new Scanner(file);
+		while(scan.hasNext()){
+			boolean accepts = image.accepts(scan.nextLine());
+			System.out.println(accepts?"yes":"no");
+		}
+		scan.close();
+	}
 
-			//read in the transactions
-			String trans = scan.nextLine();
-			tk = new StringTokenizer(trans, " ");
-			while(tk.hasMoreTokens()){
-				char[] tran = tk.nextToken().toCharArray();
-				nfa.addTransition(String.valueOf(tran[0]), tran[1], String.valueOf(tran[2]));
+	/**
+	 * Prints the states of the DFA and then the DFA itself, streamed
+	 * through a buffer instead of building the whole text first
+	 * @param dfa
+	 * @throws IOException
+	 */
+	private static void printDFA(DFA dfa) throws IOException {
+		System.out.println(dfa.getStates());
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+		dfa.writeTo(out);
+		out.write(System.lineSeparator());
+		out.flush();
+	}
+
+	/**
+	 * Opens an input file in the default charset, as Scanner does
+	 * @param file
+	 * @return a reader at the start of the file
+	 * @throws IOException
+	 */
+	private static BufferedReader open(File file) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.defaultCharset()), 1 << 16);
+	}
+
+	/**
+	 * Reads the four header lines for NFAParser. Only the header is held
+	 * in memory; the reader is left at the first test string.
+	 * @param in the input file
+	 * @return the header lines, each ending in \n, fewer if the file is
+	 * shorter
+	 * @throws IOException
+	 */
+	private static CharBuffer header(BufferedReader in) throws IOException {
+		StringBuilder header = new StringBuilder();
+		String line;
+		for(int i = 0; i < 4 && (line = in.readLine()) != null; i++){
+			header.append(line).append('\n');
+		}
+		return CharBuffer.wrap(header);
+	}
+
+	/**
+	 * Calls an action with every remaining line, read one at a time.
+	 * Like Scanner.hasNext(), blank lines at the end are skipped.
+	 * @param in the input file
+	 * @param action receives each line without the line terminator
+	 * @throws IOException
+	 */
+	private static void forEachLine(BufferedReader in, Consumer<CharSequence> action) throws IOException {
+		List<String> blank = new ArrayList<String>();//held back until a line with text follows
+		for(String line; (line = in.readLine()) != null; ){
+			if(line.isBlank()){
+				blank.add(line);
+				continue;
 			}
-			DFA dfa = nfa.getDFA();
-			System.out.println(dfa.getStates());
-			//print out dfa in the specified format.
-			System.out.println(dfa);
-			//now call the method again and process the strings
-			dfa = nfa.getDFA();
-			while(scan.hasNext()){
-				boolean accepts = dfa.accepts(scan.nextLine());
-				System.out.println(accepts?"yes":"no");
+			for(String b : blank){
+				action.accept(b);
 			}
-			scan.close();
-		} else {
-			System.err.println(file + " does not exists - please check the file path");
+			blank.clear();
+			action.accept(line);
 		}
 	}
 
@@ -0,0 +1,38 @@
+package fa.nfa;
+
+/**
+ * Thrown by NFAParser when its input is not a valid NFA description.
+ * The message starts with the line and column of the error.
+ */
+public class NFAFormatException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+    private final int column;
+
+    /**
+     * @param line the line of the error, counted from 1
+     * @param column the column of the error, counted from 1
+     * @param message what is wrong
+     */
+    public NFAFormatException(int line, int column, String message){
+        super("line " + line + ", column " + column + ": " + message);
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * @return the line of the error, counted from 1
+     */
+    public int getLine(){
+        return this.line;
+    }
+
+    /**
+     * @return the column of the error, counted from 1
+     */
+    public int getColumn(){
+        return this.column;
+    }
+}
@@ -31,4 +31,12 @@ public interface NFAInterface extends FAInterface {
 	 */
 	
 	public Set<NFAState> eClosure(NFAState s);
+
+	/**
+	 * Determines whether the NFA accepts s without the caller
+	 * building the equivalent DFA first
+	 * @param s - the input string, "e" stands for the empty string
+	 * @return true if s in the language of the NFA and false otherwise
+	 */
+	public boolean accepts(CharSequence s);
 }
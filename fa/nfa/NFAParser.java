@@ -0,0 +1,334 @@
+package fa.nfa;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads the four header lines of an NFADriver input file into an NFA in
+ * one pass over a CharBuffer: the final states, the start state, the
+ * other states and the transitions, each written as the name of the
+ * source state, the symbol and the name of the target state without
+ * separators. Names and transitions are separated by spaces or tabs, and
+ * lines may end in \r\n.
+ *
+ * State names may be longer than one character. Every line is copied
+ * once into a reusable array and every declared name is interned in a
+ * hash table that is searched straight from that array, so a transition
+ * is resolved without creating strings, and all transitions are added to
+ * the NFA in one bulk call at the end. A transition whose text can be
+ * split into declared states in more than one way is rejected. Errors
+ * are reported as NFAFormatException with the line and column where they
+ * were found.
+ *
+ * A parser can be reused for any number of inputs, but not by several
+ * threads at once.
+ */
+public final class NFAParser {
+
+    private static final String[] LINES = {"final states", "start state", "states", "transitions"};
+
+    private char[] chars = new char[256]; //the line being parsed
+    private int line; //its number, from 1
+
+    //interned state names, by id in the order they were declared: the
+    //characters of name id are pool[offsets[id]..offsets[id + 1])
+    private char[] pool = new char[64];
+    private int[] offsets = new int[17];
+    private NFAState[] states = new NFAState[16];
+    private int count;
+    //open addressing table of hash << 32 | id + 1, 0 if empty; a probe
+    //only reads the pool once the hash matches
+    private long[] slots = new long[32];
+    private int shift = 32 - 5; //32 - log2(slots.length)
+    //one bit per hash of the declared names, four bits per slot; small
+    //enough to stay in cache, so most ways to split a transition are
+    //rejected without touching the table
+    private long[] filter = new long[2];
+
+    //transitions, handed to the NFA in one call
+    private NFAState[] from = new NFAState[64];
+    private char[] on = new char[64];
+    private NFAState[] to = new NFAState[64];
+    private int transitions;
+
+    /**
+     * Reads the header lines from the position of a buffer. The buffer
+     * position is moved to the line after the transitions.
+     * @param in the input
+     * @return a new NFA with the states and transitions of the input
+     * @throws NFAFormatException if the input ends early or a transition
+     * cannot be read
+     */
+    public NFA parse(CharBuffer in){
+        this.line = 0;
+        this.count = 0;
+        this.transitions = 0;
+        Arrays.fill(this.slots, 0L);
+        Arrays.fill(this.filter, 0);
+        try{
+            NFA nfa = new NFA();
+            int end = nextLine(in, 0);
+            for(int s = skip(0, end); s < end; s = skip(s, end)){
+                int e = tokenEnd(s, end);
+                String name = text(s, e);
+                nfa.addFinalState(name);
+                declare(nfa, name);
+                s = e;
+            }
+
+            end = nextLine(in, 1);
+            int s = 0;
+            while(s < end && this.chars[s] <= ' '){
+                s++;
+            }
+            while(end > s && this.chars[end - 1] <= ' '){
+                end--;
+            }
+            String start = text(s, end);
+            nfa.addStartState(start);
+            declare(nfa, start);
+
+            end = nextLine(in, 2);
+            for(s = skip(0, end); s < end; s = skip(s, end)){
+                int e = tokenEnd(s, end);
+                String name = text(s, e);
+                nfa.addState(name);
+                declare(nfa, name);
+                s = e;
+            }
+
+            end = nextLine(in, 3);
+            for(s = skip(0, end); s < end; s = skip(s, end)){
+                int e = tokenEnd(s, end);
+                transition(s, e);
+                s = e;
+            }
+            nfa.addTransitions(this.from, this.on, this.to, this.transitions);
+            return nfa;
+        }finally{
+            //do not keep the NFA reachable from a parser that is kept around
+            Arrays.fill(this.states, 0, this.count, null);
+            Arrays.fill(this.from, 0, this.transitions, null);
+            Arrays.fill(this.to, 0, this.transitions, null);
+        }
+    }
+
+    /**
+     * Copies the next line into chars and moves the buffer past it
+     * @param in the input
+     * @param n the header line that is expected, 0 to 3
+     * @return the length of the line, without the line terminator
+     */
+    private int nextLine(CharBuffer in, int n){
+        this.line++;
+        if(!in.hasRemaining()){
+            throw new NFAFormatException(this.line, 1, "the input ends before the " + LINES[n] + " line");
+        }
+        char[] chars = this.chars;
+        int len = 0;
+        while(in.hasRemaining()){
+            char c = in.get();
+            if(c == '\n'){
+                break;
+            }
+            if(len == chars.length){
+                chars = Arrays.copyOf(chars, len * 2);
+                this.chars = chars;
+            }
+            chars[len++] = c;
+        }
+        return len > 0 && chars[len - 1] == '\r' ? len - 1 : len;
+    }
+
+    private int skip(int i, int end){
+        while(i < end && (this.chars[i] == ' ' || this.chars[i] == '\t')){
+            i++;
+        }
+        return i;
+    }
+
+    private int tokenEnd(int i, int end){
+        while(i < end && this.chars[i] != ' ' && this.chars[i] != '\t'){
+            i++;
+        }
+        return i;
+    }
+
+    private String text(int from, int to){
+        return new String(this.chars, from, to - from);
+    }
+
+    /**
+     * Interns a name that was just added to the NFA. A name declared
+     * twice keeps the state of its first declaration, as the NFA does.
+     */
+    private void declare(NFA nfa, String name){
+        int h = name.hashCode();
+        int i = slot(h);
+        for(long e; (e = this.slots[i]) != 0; i = (i + 1) & (this.slots.length - 1)){
+            if((int) (e >>> 32) == h && name.contentEquals(name((int) e - 1))){
+                return;
+            }
+        }
+        if(this.count == this.states.length){
+            this.offsets = Arrays.copyOf(this.offsets, this.count * 2 + 1);
+            this.states = Arrays.copyOf(this.states, this.count * 2);
+        }
+        int start = this.offsets[this.count];
+        if(start + name.length() > this.pool.length){
+            this.pool = Arrays.copyOf(this.pool, Math.max(this.pool.length * 2, start + name.length()));
+        }
+        name.getChars(0, name.length(), this.pool, start);
+        this.offsets[this.count + 1] = start + name.length();
+        this.states[this.count] = nfa.checkIfExists(name);
+        this.count++;
+        this.slots[i] = (long) h << 32 | this.count;
+        mark(h);
+        if(2 * this.count > this.slots.length){
+            rehash();
+        }
+    }
+
+    private void rehash(){
+        long[] old = this.slots;
+        this.slots = new long[old.length * 2];
+        this.filter = new long[this.filter.length * 2];
+        this.shift--;
+        for(long e : old){
+            if(e != 0){
+                int h = (int) (e >>> 32);
+                int i = slot(h);
+                while(this.slots[i] != 0){
+                    i = (i + 1) & (this.slots.length - 1);
+                }
+                this.slots[i] = e;
+                mark(h);
+            }
+        }
+    }
+
+    /**
+     * @return the interned name with an id, as a new string
+     */
+    private String name(int id){
+        return new String(this.pool, this.offsets[id], this.offsets[id + 1] - this.offsets[id]);
+    }
+
+    /**
+     * Takes the high bits of the hash times the golden ratio: the hashes
+     * of names like s1, s2, s3 are close together, and their low bits
+     * would fill runs of adjacent slots
+     */
+    private int slot(int h){
+        return (h * 0x9E3779B9) >>> this.shift;
+    }
+
+    /**
+     * @return the index of the filter bit of a hash
+     */
+    private int bit(int h){
+        return (h * 0x85EBCA6B) >>> (this.shift - 2);
+    }
+
+    private void mark(int h){
+        int b = bit(h);
+        this.filter[b >>> 6] |= 1L << b;
+    }
+
+    /**
+     * @return false if no declared name has the hash
+     */
+    private boolean mayContain(int h){
+        int b = bit(h);
+        return (this.filter[b >>> 6] & (1L << b)) != 0;
+    }
+
+    /**
+     * Looks up the name between two indices of the line
+     * @param h the hash of the name as String.hashCode computes it
+     * @return the id of the name or -1 if it was not declared
+     */
+    private int find(int from, int to, int h){
+        for(int i = slot(h); ; i = (i + 1) & (this.slots.length - 1)){
+            long e = this.slots[i];
+            if(e == 0){
+                return -1;
+            }
+            if((int) (e >>> 32) == h && matches((int) e - 1, from, to)){
+                return (int) e - 1;
+            }
+        }
+    }
+
+    private boolean matches(int id, int from, int to){
+        int start = this.offsets[id];
+        if(this.offsets[id + 1] - start != to - from){
+            return false;
+        }
+        for(int i = from; i < to; i++){
+            if(this.chars[i] != this.pool[start + i - from]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits a transition into a declared source state, the symbol and a
+     * declared target state and records it
+     * @param s the index of its first character in the line
+     * @param e the index after its last character
+     */
+    private void transition(int s, int e){
+        if(e - s < 3){
+            throw error(s, "transition " + text(s, e) + " needs a state, a symbol and a state");
+        }
+        int source = -1;
+        int symbol = -1;
+        int target = -1;
+        int h = 0;
+        for(int k = s + 1; k < e - 1; k++){
+            h = 31 * h + this.chars[k - 1];
+            if(!mayContain(h)){
+                continue;
+            }
+            int th = 0;
+            for(int i = k + 1; i < e; i++){
+                th = 31 * th + this.chars[i];
+            }
+            //both halves pass the filter before the table is searched
+            if(!mayContain(th)){
+                continue;
+            }
+            int f = find(s, k, h);
+            int t = f < 0 ? -1 : find(k + 1, e, th);
+            if(t < 0){
+                continue;
+            }
+            if(source >= 0){
+                throw error(s, "transition " + text(s, e) + " can be read as "
+                        + name(source) + " " + this.chars[symbol] + " " + name(target)
+                        + " and as " + name(f) + " " + this.chars[k] + " " + name(t));
+            }
+            source = f;
+            symbol = k;
+            target = t;
+        }
+        if(source < 0){
+            throw error(s, "transition " + text(s, e) + " is not between two declared states");
+        }
+        if(this.transitions == this.from.length){
+            this.from = Arrays.copyOf(this.from, this.transitions * 2);
+            this.on = Arrays.copyOf(this.on, this.transitions * 2);
+            this.to = Arrays.copyOf(this.to, this.transitions * 2);
+        }
+        this.from[this.transitions] = this.states[source];
+        this.on[this.transitions] = this.chars[symbol];
+        this.to[this.transitions] = this.states[target];
+        this.transitions++;
+    }
+
+    private NFAFormatException error(int at, String message){
+        return new NFAFormatException(this.line, at + 1, message);
+    }
+}
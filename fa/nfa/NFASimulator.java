@@ -0,0 +1,188 @@
+package fa.nfa;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import fa.metrics.Metrics;
+
+/**
+ * Thompson style simulation of an NFA without determinizing it.
+ * The current set of NFA states is a long[] bitset over the dense state
+ * ids; each input character moves every member along its transitions on
+ * that character and adds the epsilon closures of the targets, which come
+ * precomputed from the EClosureIndex. A run costs O(n * |input|) and the
+ * two bitsets it needs are reused per thread, so matching does not
+ * allocate once a thread has warmed up.
+ *
+ * The tables are built from the NFA as it was when the simulator was
+ * created and are never changed afterwards.
+ */
+final class NFASimulator {
+
+    private final EClosureIndex closures;
+    private final SymbolClasses classes;
+    private final int symbols; //number of symbol classes
+    private final int[][] delta; //[state * symbols + symbol class] -> successor ids or null
+    private final long[] startSet;
+    private final long[] finals;
+    private final int words;
+    private final ThreadLocal<long[][]> scratch;
+
+    NFASimulator(EClosureIndex closures, Set<NFAState> states, NFAState start, Set<Character> abc){
+        int n = states.size();
+        NFAState[] byId = states.toArray(new NFAState[n]);
+        Map<NFAState,Integer> ids = new IdentityHashMap<NFAState,Integer>(n * 2);
+        for(int i = 0; i < n; i++){
+            ids.put(byId[i], i);
+        }
+        this.closures = closures;
+        this.words = Math.max(1, (n + 63) >>> 6);
+
+        SymbolClasses classes = new SymbolClasses(byId, abc);
+        this.classes = classes;
+        int k = classes.count();
+        this.symbols = k;
+
+        this.delta = new int[n * k][];
+        for(int i = 0; i < n; i++){
+            for(int j = 0; j < k; j++){
+                NFAState[] to = byId[i].successors(classes.representative(j));
+                if(to != null){
+                    int[] succ = new int[to.length];
+                    int m = 0;
+                    for(NFAState t : to){
+                        succ[m++] = ids.get(t);
+                    }
+                    this.delta[i * k + j] = succ;
+                }
+            }
+        }
+        this.finals = new long[this.words];
+        for(int i = 0; i < n; i++){
+            if(byId[i].getIsFinal()){
+                this.finals[i >>> 6] |= 1L << i;
+            }
+        }
+        this.startSet = new long[this.words];
+        if(start != null){
+            closures.orClosure(ids.get(start), this.startSet);
+        }
+        final int w = this.words;
+        this.scratch = ThreadLocal.withInitial(() -> new long[][] { new long[w], new long[w] });
+    }
+
+    /**
+     * Simulates the NFA on the input. As in DFA.accepts the single
+     * character "e" stands for the empty string unless e is in the alphabet.
+     * @param s the input
+     * @return true if s is in the language of the NFA
+     */
+    boolean accepts(CharSequence s){
+        int len = s.length();
+        if(len == 1 && s.charAt(0) == 'e' && symbolOf('e') < 0){
+            len = 0;
+        }
+        return acceptsFrom(this.startSet, s, 0, len);
+    }
+
+    /**
+     * Continues a simulation from a set of states and reports the match
+     * to the metrics, counting the characters before from as read
+     * @param set the current states, not modified
+     * @param s the input
+     * @param from the index of the next character to read
+     * @param to the index after the last character to read
+     * @return true if the remaining input leads to a final state
+     */
+    boolean acceptsFrom(long[] set, CharSequence s, int from, int to){
+        long[][] sets = this.scratch.get();
+        long[] cur = sets[0];
+        long[] next = sets[1];
+        System.arraycopy(set, 0, cur, 0, this.words);
+        for(int i = from; i < to; i++){
+            int sym = symbolOf(s.charAt(i));
+            if(sym < 0 || !step(cur, sym, next)){
+                Metrics.get().match(i + 1, false, true);
+                return false;
+            }
+            long[] tmp = cur;
+            cur = next;
+            next = tmp;
+        }
+        boolean ret = isFinal(cur);
+        Metrics.get().match(to, ret, false);
+        return ret;
+    }
+
+    /**
+     * Moves a set of states on one symbol and closes the result
+     * under epsilon transitions
+     * @param cur the current states, not modified
+     * @param sym the symbol id
+     * @param next receives the new states
+     * @return false if the new set is empty
+     */
+    boolean step(long[] cur, int sym, long[] next){
+        Arrays.fill(next, 0L);
+        boolean any = false;
+        for(int w = 0; w < this.words; w++){
+            long word = cur[w];
+            while(word != 0){
+                int q = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                int[] to = this.delta[q * this.symbols + sym];
+                if(to != null){
+                    any = true;
+                    for(int t : to){
+                        this.closures.orClosure(t, next);
+                    }
+                }
+            }
+        }
+        return any;
+    }
+
+    /**
+     * @param c a character
+     * @return the symbol class of c or -1 if c is not in the alphabet
+     */
+    int symbolOf(char c){
+        return this.classes.classOfChar(c);
+    }
+
+    /**
+     * @return the number of symbol classes
+     */
+    int symbolCount(){
+        return this.symbols;
+    }
+
+    /**
+     * @return the number of longs in a state set
+     */
+    int words(){
+        return this.words;
+    }
+
+    /**
+     * @return the closed start set, must not be modified
+     */
+    long[] startSet(){
+        return this.startSet;
+    }
+
+    /**
+     * @param set a set of states
+     * @return true if the set contains a final state
+     */
+    boolean isFinal(long[] set){
+        for(int w = 0; w < this.words; w++){
+            if((set[w] & this.finals[w]) != 0){
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,7 +1,10 @@
 package fa.nfa;
 
-import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Set;
 
 import fa.State;
@@ -13,43 +16,221 @@ import fa.State;
  */
 public class NFAState extends State{
 
+    private static final char[] NO_SYMBOLS = new char[0];
+    private static final NFAState[][] NO_TARGETS = new NFAState[0][];
+    private static final int[] NO_COUNTS = new int[0];
+    private static final int EPSILON = -1; //stands for epsilon where a character is expected
+
     private boolean isFinal;
-    private HashMap<Character,Set<NFAState>> delta;
+    //transitions: symbols[0..size) sorted, targets[i][0..counts[i]) are the successors on symbols[i] in the order they were added
+    private char[] symbols;
+    private NFAState[][] targets;
+    private int[] counts;
+    private int size;
+    private NFAState[] epsilon; //epsilon successors in the order they were added, null if none
+    private int epsilonCount;
+    //set by an add, which neither looks for duplicates nor trims the
+    //arrays it grows; the first read after it does both, once for all adds
+    private volatile boolean pending;
 
     public NFAState(boolean isFinal, String name){
         this.isFinal = isFinal;
         this.name = name;
-        this.delta = new HashMap<Character,Set<NFAState>>();
+        this.symbols = NO_SYMBOLS;
+        this.targets = NO_TARGETS;
+        this.counts = NO_COUNTS;
     }
 
     public NFAState(String name){
         this.name = name;
-        this.delta = new HashMap<Character,Set<NFAState>>();
+        this.symbols = NO_SYMBOLS;
+        this.targets = NO_TARGETS;
+        this.counts = NO_COUNTS;
     }
 
     public boolean getIsFinal(){
         return this.isFinal;
     }
 
+    /**
+     * Adds a transition in constant amortized time; adding one that
+     * exists has no effect
+     * @param onSymb
+     * @param to
+     */
     public void addTransition(char onSymb, NFAState to){
-        if(delta.containsKey(onSymb)){
-            Set<NFAState> existing = delta.get(onSymb);
-            existing.add(to);
-            this.delta.put(onSymb, existing);
+        int i = Arrays.binarySearch(this.symbols, 0, this.size, onSymb);
+        if(i >= 0){
+            int n = this.counts[i];
+            if(n == this.targets[i].length){
+                this.targets[i] = Arrays.copyOf(this.targets[i], Math.max(4, n * 2));
+            }
+            this.targets[i][n] = to;
+            this.counts[i] = n + 1;
+            markPending();
         }else{
-            Set<NFAState> newSet = new LinkedHashSet<NFAState>();
-            newSet.add(to);
-            this.delta.put(onSymb, newSet);
+            i = -i - 1;
+            if(this.size == this.symbols.length){
+                int cap = Math.max(2, this.size * 2);
+                this.symbols = Arrays.copyOf(this.symbols, cap);
+                this.targets = Arrays.copyOf(this.targets, cap);
+                this.counts = Arrays.copyOf(this.counts, cap);
+            }
+            System.arraycopy(this.symbols, i, this.symbols, i + 1, this.size - i);
+            System.arraycopy(this.targets, i, this.targets, i + 1, this.size - i);
+            System.arraycopy(this.counts, i, this.counts, i + 1, this.size - i);
+            this.symbols[i] = onSymb;
+            this.targets[i] = new NFAState[]{to};
+            this.counts[i] = 1;
+            this.size++;
         }
     }
 
-    public Set<NFAState> getToStates(char onSymb){
-        if(!delta.containsKey(onSymb)){
-            return null;
+    /**
+     * Adds an epsilon transition, which is kept apart from the
+     * transitions on input symbols, in constant amortized time
+     * @param to
+     */
+    public void addEpsilonTransition(NFAState to){
+        if(this.epsilon == null){
+            this.epsilon = new NFAState[]{to};
+            this.epsilonCount = 1;
+            return;
+        }
+        if(this.epsilonCount == this.epsilon.length){
+            this.epsilon = Arrays.copyOf(this.epsilon, Math.max(4, this.epsilonCount * 2));
+        }
+        this.epsilon[this.epsilonCount++] = to;
+        markPending();
+    }
+
+    private void markPending(){
+        if(!this.pending){
+            this.pending = true;
+        }
+    }
+
+    /**
+     * Drops the duplicates and the spare capacity that adds left behind.
+     * Runs on the first read after an add; the NFA may be read by several
+     * threads at once, so they wait for the first of them.
+     */
+    private synchronized void settle(){
+        if(!this.pending){
+            return;
+        }
+        for(int i = 0; i < this.size; i++){
+            this.targets[i] = distinct(this.targets[i], this.counts[i]);
+            this.counts[i] = this.targets[i].length;
+        }
+        if(this.epsilon != null){
+            this.epsilon = distinct(this.epsilon, this.epsilonCount);
+            this.epsilonCount = this.epsilon.length;
+        }
+        this.pending = false;
+    }
+
+    /**
+     * @return the first n states of a without repeats, in their order, as
+     * an array of exactly that length
+     */
+    private static NFAState[] distinct(NFAState[] a, int n){
+        int k = 0;
+        if(n <= 16){
+            for(int i = 0; i < n; i++){
+                int j = 0;
+                while(j < k && a[j] != a[i]){
+                    j++;
+                }
+                if(j == k){
+                    a[k++] = a[i];
+                }
+            }
         }else{
-            return this.delta.get(onSymb);
+            Set<NFAState> seen = Collections.newSetFromMap(new IdentityHashMap<NFAState,Boolean>(n));
+            for(int i = 0; i < n; i++){
+                if(seen.add(a[i])){
+                    a[k++] = a[i];
+                }
+            }
+        }
+        return k == a.length ? a : Arrays.copyOf(a, k);
+    }
+
+    /**
+     * @return a read-only view of the states reached by epsilon
+     * transitions, or null if there are none
+     */
+    public Set<NFAState> getEpsilonStates(){
+        return this.epsilon == null ? null : new ToStates(EPSILON);
+    }
+
+    /**
+     * @param onSymb
+     * @return a read-only view of the states reached on onSymb, in the
+     * order the transitions were added, or null if there are none
+     */
+    public Set<NFAState> getToStates(char onSymb){
+        return successors(onSymb) == null ? null : new ToStates(onSymb);
+    }
+
+    /**
+     * @return the epsilon successors, must not be modified, or null if
+     * there are none
+     */
+    NFAState[] epsilonSuccessors(){
+        if(this.pending){
+            settle();
         }
+        return this.epsilon;
     }
 
-    
+    /**
+     * @param onSymb
+     * @return the states reached on onSymb, must not be modified, or
+     * null if there are none
+     */
+    NFAState[] successors(char onSymb){
+        if(this.pending){
+            settle();
+        }
+        int i = Arrays.binarySearch(this.symbols, 0, this.size, onSymb);
+        return i < 0 ? null : this.targets[i];
+    }
+
+    /**
+     * Live view of the successors on one symbol or on epsilon
+     */
+    private final class ToStates extends AbstractSet<NFAState> {
+        private final int onSymb; //a character or EPSILON
+
+        ToStates(int onSymb){
+            this.onSymb = onSymb;
+        }
+
+        private NFAState[] current(){
+            return this.onSymb == EPSILON ? epsilonSuccessors() : successors((char) this.onSymb);
+        }
+
+        @Override
+        public Iterator<NFAState> iterator(){
+            //the iterator of Arrays.asList does not support remove
+            return Arrays.asList(current()).iterator();
+        }
+
+        @Override
+        public int size(){
+            return current().length;
+        }
+
+        @Override
+        public boolean contains(Object o){
+            for(NFAState t : current()){
+                if(t == o){
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
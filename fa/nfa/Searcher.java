@@ -0,0 +1,318 @@
+package fa.nfa;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import fa.State;
+import fa.dfa.CompiledDFA;
+
+/**
+ * Finds the substrings of a text that an NFA accepts.
+ * Two DFAs are built once: the DFA of the NFA itself and the DFA of the
+ * reversed NFA below a start state that loops on every symbol, which
+ * accepts any string followed by a reversed match. One backward pass of the
+ * reverse DFA over the text marks every position where a match starts.
+ * From the leftmost marked position the forward DFA runs until it dies
+ * and the last final state it passed ends the match, which gives the
+ * leftmost-longest match. The search goes on after its end, so the
+ * reported matches never overlap.
+ *
+ * The backward pass reads every character once and keeps one bit per
+ * position. The forward DFA reads each match and the characters after
+ * it up to the point where no longer match is possible, and the next
+ * scan starts inside that overshoot. For a pattern such as a|a*b on a
+ * long run of a's every scan would read the rest of the run again, so
+ * the pairs of position and DFA state that a scan reads past its match
+ * are kept with the longest match end that follows them. A later scan
+ * that reaches a kept pair stops there, because it would read exactly
+ * what the earlier one read. Overshoots of up to 16 characters are not
+ * kept but read again, so a search takes at most the text length times
+ * the number of forward DFA states plus 16 steps per match, and about
+ * one step per character for most patterns.
+ *
+ * The text is read literally: e is an ordinary character and the empty
+ * string is reported as an empty match where the NFA accepts it.
+ * Characters outside the alphabet end any match. A Searcher never
+ * changes after it is built and can be shared by any number of threads;
+ * later changes to the NFA are not seen.
+ */
+public final class Searcher {
+
+    /**
+     * Receives the matches of a search
+     */
+    public interface MatchHandler {
+        /**
+         * @param start the index of the first character of the match
+         * @param end the index after the last character of the match
+         */
+        void match(int start, int end);
+    }
+
+    private final CompiledDFA forward;
+    private final CompiledDFA reverse; //any string, then the reversed NFA
+
+    /**
+     * Builds the forward and the reverse DFA of an NFA
+     * @param nfa the NFA, with a start state
+     * @throws IllegalArgumentException if the NFA has no start state
+     */
+    public Searcher(NFA nfa){
+        if(nfa.getStartState() == null){
+            throw new IllegalArgumentException("the NFA has no start state");
+        }
+        this.forward = nfa.getDFA().compile();
+        this.reverse = reversed(nfa).getDFA().compile();
+    }
+
+    /**
+     * Reverses every transition of an NFA below a new start state that
+     * loops on every symbol and has an epsilon transition to each final
+     * state. The old start state is the only final state.
+     * The states are named ~name, so the new start state cannot clash.
+     */
+    private static NFA reversed(NFA nfa){
+        NFA rev = new NFA(false);
+        rev.addStartState("start");
+        for(State s : nfa.getStates()){
+            if(s == nfa.getStartState()){
+                rev.addFinalState("~" + s.getName());
+            }else{
+                rev.addState("~" + s.getName());
+            }
+        }
+        for(char c : nfa.getABC()){
+            rev.addTransition("start", c, "start");
+        }
+        for(State s : nfa.getStates()){
+            NFAState q = (NFAState) s;
+            String to = "~" + q.getName();
+            if(q.getIsFinal()){
+                rev.addEpsilonTransition("start", to);
+            }
+            NFAState[] eps = q.epsilonSuccessors();
+            if(eps != null){
+                for(NFAState t : eps){
+                    rev.addEpsilonTransition("~" + t.getName(), to);
+                }
+            }
+            for(char c : nfa.getABC()){
+                NFAState[] from = q.successors(c);
+                if(from != null){
+                    for(NFAState t : from){
+                        rev.addTransition("~" + t.getName(), c, to);
+                    }
+                }
+            }
+        }
+        return rev;
+    }
+
+    /**
+     * Calls a handler with every leftmost-longest match in a text, from
+     * left to right
+     * @param text the text to search
+     * @param handler receives the matches
+     */
+    public void forEachMatch(CharSequence text, MatchHandler handler){
+        forEachMatch(text, 0, text.length(), handler);
+    }
+
+    /**
+     * Calls a handler with every leftmost-longest match inside a range
+     * of a text, from left to right. Matches neither start before from
+     * nor end after to.
+     * @param text the text to search
+     * @param from the index of the first character searched
+     * @param to the index after the last character searched
+     * @param handler receives the matches, with indices into text
+     */
+    public void forEachMatch(CharSequence text, int from, int to, MatchHandler handler){
+        if(from < 0 || to > text.length() || from > to){
+            throw new IndexOutOfBoundsException("range " + from + ".." + to + " of " + text.length());
+        }
+        BitSet starts = starts(text, from, to);
+        Scans scans = new Scans(this.forward);
+        int pos = from;
+        while(pos <= to){
+            int start = starts.nextSetBit(pos - from) + from;
+            if(start < from){
+                break;
+            }
+            int end = scans.longest(text, start, to);
+            handler.match(start, end);
+            pos = end > start ? end : start + 1;
+        }
+    }
+
+    /**
+     * @param text the text to search
+     * @return the number of leftmost-longest matches in the text
+     */
+    public int countMatches(CharSequence text){
+        int[] n = new int[1];
+        forEachMatch(text, (start, end) -> n[0]++);
+        return n[0];
+    }
+
+    /**
+     * Runs the reverse DFA from the end of the range to its start
+     * @return a bitset with bit i set if a match starts at from + i
+     */
+    private BitSet starts(CharSequence text, int from, int to){
+        CompiledDFA t = this.reverse;
+        BitSet starts = new BitSet(to - from + 1);
+        int start = t.getStartState();
+        int st = start;
+        if(t.isFinal(st)){
+            starts.set(to - from);
+        }
+        for(int i = to - 1; i >= from; i--){
+            int sym = t.symbolOf(text.charAt(i));
+            //the loop of the start state reads anything, so a character
+            //outside the alphabet leaves only the start state
+            st = sym < 0 ? start : t.next(st, sym);
+            if(t.isFinal(st)){
+                starts.set(i - from);
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * The forward scans of one search, with the pairs of position and
+     * state that scans read past the end of their match
+     */
+    private static final class Scans {
+        private static final int MISSING = -2;
+        private static final int RESCAN = 16; //the longest overshoot that is not kept
+
+        private final CompiledDFA t;
+        private int[] path = new int[64]; //the states of the current scan, by position - start
+        //open addressing table of position << 32 | state; a slot is in use
+        //if its stamp is the current generation, so clearing is one increment
+        private long[] keys = new long[64];
+        private int[] ends = new int[64]; //the longest end after the pair, -1 if none
+        private int[] stamps = new int[64];
+        private int generation = 1;
+        private int size;
+        private int last = -1; //the largest position kept
+
+        Scans(CompiledDFA t){
+            this.t = t;
+        }
+
+        /**
+         * Runs the forward DFA from a position where a match starts until
+         * it dies, the range ends or it reaches a kept pair
+         * @return the end of the longest match starting at start
+         */
+        int longest(CharSequence text, int start, int to){
+            if(start > this.last && this.size > 0){
+                //no later scan can reach the kept positions
+                this.generation++;
+                this.size = 0;
+            }
+            int st = this.t.getStartState();
+            int end = start;
+            int n = 0;
+            int known = MISSING;
+            for(int i = start; ; i++){
+                if(i <= this.last && this.size > 0 && (known = find(i, st)) != MISSING){
+                    break;
+                }
+                if(n == this.path.length){
+                    this.path = Arrays.copyOf(this.path, n * 2);
+                }
+                this.path[n++] = st;
+                if(this.t.isFinal(st)){
+                    end = i;
+                }
+                if(i >= to || this.t.isDead(st)){
+                    break;
+                }
+                int sym = this.t.symbolOf(text.charAt(i));
+                if(sym < 0 || (st = this.t.next(st, sym)) < 0){
+                    break;
+                }
+            }
+            if(known >= 0){
+                end = known;
+            }
+            //keep the pairs past the match end, which the next scans may
+            //reach; a short overshoot is cheaper to read again
+            if(start + n - end > RESCAN){
+                int best = known == MISSING ? -1 : known;
+                for(int k = n - 1; k >= 0 && start + k >= end; k--){
+                    if(best < 0 && this.t.isFinal(this.path[k])){
+                        best = start + k;
+                    }
+                    put(start + k, this.path[k], best);
+                }
+                this.last = Math.max(this.last, start + n - 1);
+            }
+            return end;
+        }
+
+        private int slot(long key){
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (this.keys.length - 1);
+        }
+
+        /**
+         * @return the longest end kept for a pair, -1 if none, MISSING if
+         * the pair is not kept
+         */
+        private int find(int pos, int state){
+            long key = (long) pos << 32 | state;
+            for(int i = slot(key); this.stamps[i] == this.generation; i = (i + 1) & (this.keys.length - 1)){
+                if(this.keys[i] == key){
+                    return this.ends[i];
+                }
+            }
+            return MISSING;
+        }
+
+        private void put(int pos, int state, int end){
+            if(2 * (this.size + 1) > this.keys.length){
+                grow();
+            }
+            long key = (long) pos << 32 | state;
+            int i = slot(key);
+            while(this.stamps[i] == this.generation){
+                i = (i + 1) & (this.keys.length - 1);
+            }
+            this.keys[i] = key;
+            this.ends[i] = end;
+            this.stamps[i] = this.generation;
+            this.size++;
+        }
+
+        private void grow(){
+            long[] keys = this.keys;
+            int[] ends = this.ends;
+            int[] stamps = this.stamps;
+            int generation = this.generation;
+            this.keys = new long[keys.length * 2];
+            this.ends = new int[keys.length * 2];
+            this.stamps = new int[keys.length * 2];
+            this.generation = 1;
+            for(int j = 0; j < keys.length; j++){
+                if(stamps[j] == generation){
+                    int i = slot(keys[j]);
+                    while(this.stamps[i] == 1){
+                        i = (i + 1) & (this.keys.length - 1);
+                    }
+                    this.keys[i] = keys[j];
+                    this.ends[i] = ends[j];
+                    this.stamps[i] = 1;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString(){
+        return this.forward.getStateCount() + " forward DFA states, "
+                + this.reverse.getStateCount() + " reverse DFA states";
+    }
+}
@@ -0,0 +1,625 @@
+package fa.nfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fa.dfa.DFA;
+import fa.metrics.AutomatonMetrics;
+import fa.metrics.Metrics;
+
+/**
+ * Subset construction engine behind NFA.getDFA().
+ * The NFA states are numbered densely in the order they were added and
+ * every DFA state is a long[] bitset over those numbers. Discovered subsets
+ * live in a single SubsetTable, so finding a subset never scans the
+ * subsets found so far. Moves are computed once per symbol class (see
+ * SymbolClasses) rather than once per symbol.
+ *
+ * The produced DFA is named and ordered exactly like the original
+ * breadth-first conversion: states appear in discovery order, the empty
+ * subset is the "[]" trap state and every state is named after its members
+ * in the order they were first reached.
+ *
+ * runParallel explores the subsets level by level on a fork-join pool and
+ * then numbers and names them in a serial pass, so its DFA is identical to
+ * the one run produces whatever the number of threads.
+ *
+ * Every construction leaves a Snapshot of the subsets it found. update
+ * starts from the snapshot of an earlier construction of the same NFA and
+ * only recomputes the moves of subsets that contain a state whose
+ * transitions changed since; the result is again identical to run.
+ */
+final class SubsetConstruction {
+
+    private final NFAState[] nfaStates;
+    private final Map<NFAState,Integer> ids;
+    private final int startId;
+    private final char[] symbols; //input alphabet, epsilon is not part of it
+    private final SymbolClasses classes;
+    private final int[][][] delta; //[state][symbol class] -> successor ids or null
+    private final EClosureIndex closures;
+    private final long[] finals;
+    private final int words;
+
+    //scratch space reused by every call to target
+    private final long[] bits;
+    private final long[] seen;
+    private final int[] moved;
+    private final int[] order;
+
+    private Snapshot snapshot; //left by the last construction that finished
+    //closures merged into subsets, for the metrics
+    private long closureCount;
+    private final AtomicLong parallelClosureCount = new AtomicLong();
+
+    SubsetConstruction(EClosureIndex closures, Set<NFAState> states, NFAState start, Set<Character> abc){
+        int n = states.size();
+        this.nfaStates = states.toArray(new NFAState[n]);
+        this.closures = closures;
+        this.words = Math.max(1, (n + 63) >>> 6);
+
+        Map<NFAState,Integer> ids = new IdentityHashMap<NFAState,Integer>(n * 2);
+        for(int i = 0; i < n; i++){
+            ids.put(this.nfaStates[i], i);
+        }
+        this.ids = ids;
+        this.startId = ids.get(start);
+
+        this.classes = new SymbolClasses(this.nfaStates, abc);
+        this.symbols = this.classes.symbols();
+        int k = this.classes.count();
+
+        this.delta = new int[n][k][];
+        this.finals = new long[this.words];
+        for(int i = 0; i < n; i++){
+            NFAState s = this.nfaStates[i];
+            for(int j = 0; j < k; j++){
+                NFAState[] to = s.successors(this.classes.representative(j));
+                if(to != null){
+                    this.delta[i][j] = toIds(to, ids);
+                }
+            }
+            if(s.getIsFinal()){
+                this.finals[i >>> 6] |= 1L << i;
+            }
+        }
+
+        this.bits = new long[this.words];
+        this.seen = new long[this.words];
+        this.moved = new int[n];
+        this.order = new int[n];
+    }
+
+    /**
+     * Runs the breadth-first subset construction
+     * @return the equivalent DFA
+     */
+    DFA run(){
+        return run(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Runs the breadth-first subset construction unless the DFA grows
+     * past a number of states
+     * @param maxStates the largest number of DFA states to build
+     * @return the equivalent DFA or null if it needs more than maxStates states
+     */
+    DFA run(int maxStates){
+        AutomatonMetrics metrics = Metrics.get();
+        long started = metrics.clock();
+        int k = this.classes.count();
+        SubsetTable table = new SubsetTable(64);
+        int[][] members = new int[64][];
+        int[] parent = new int[64];
+        int[] via = new int[64];
+        int[] trans = new int[64 * Math.max(k, 1)];
+
+        //The start state is the e-closure of the NFA start state
+        int len = this.closures.appendClosure(this.startId, this.bits, this.order, 0);
+        members[table.add(this.bits, SubsetTable.hash(this.bits))] = Arrays.copyOf(this.order, len);
+        parent[0] = -1;
+        via[0] = -1;
+
+        //Subsets are numbered in discovery order, so walking the ids is the BFS queue
+        int queued = 0;
+        for(int cur = 0; cur < table.size(); cur++){
+            queued = Math.max(queued, table.size() - cur);
+            for(int j = 0; j < k; j++){
+                len = target(members[cur], j);
+                int hash = SubsetTable.hash(this.bits);
+                int id = table.find(this.bits, hash);
+                if(id < 0){
+                    if(table.size() == maxStates){
+                        return null;
+                    }
+                    id = table.add(this.bits, hash);
+                    if(id == members.length){
+                        members = Arrays.copyOf(members, id * 2);
+                        parent = Arrays.copyOf(parent, id * 2);
+                        via = Arrays.copyOf(via, id * 2);
+                    }
+                    members[id] = Arrays.copyOf(this.order, len);
+                    parent[id] = cur;
+                    via[id] = j;
+                }
+                if(cur * k + j >= trans.length){
+                    trans = Arrays.copyOf(trans, trans.length * 2);
+                }
+                trans[cur * k + j] = id;
+            }
+        }
+        long[][] sets = new long[table.size()][];
+        for(int id = 0; id < sets.length; id++){
+            sets[id] = table.get(id);
+        }
+        long explored = metrics.clock();
+        DFA dfa = toDFA(sets, members, new String[sets.length], trans, parent, via);
+        report(metrics, queued, started, explored);
+        return dfa;
+    }
+
+    /**
+     * Runs the subset construction again after transitions were added to
+     * the NFA, reusing what an earlier construction found. A move of a
+     * subset is taken from the snapshot unless the subset contains a state
+     * that gained a transition on the symbol, and a subset keeps its old
+     * name if it is still first reached the way it was then. New states
+     * may have been added since the snapshot; new epsilon transitions or
+     * a new start state need a full construction, which update falls back
+     * to for the latter.
+     * @param prev the snapshot of an earlier construction of the same NFA
+     * @param touchedStates the states that gained transitions since
+     * @param touchedSymbols the symbol of each of those transitions
+     * @return the equivalent DFA, identical to the one run returns
+     */
+    DFA update(Snapshot prev, List<NFAState> touchedStates, CharSequence touchedSymbols){
+        if(prev.startId != this.startId){
+            return run();
+        }
+        AutomatonMetrics metrics = Metrics.get();
+        long started = metrics.clock();
+        //the states whose moves changed, by symbol
+        Map<Character,long[]> touched = new HashMap<Character,long[]>();
+        for(int i = 0; i < touchedStates.size(); i++){
+            long[] set = touched.computeIfAbsent(touchedSymbols.charAt(i), c -> new long[this.words]);
+            int t = this.ids.get(touchedStates.get(i));
+            set[t >>> 6] |= 1L << t;
+        }
+        //the old subsets, widened if states were added since
+        long[][] prevSets = prev.sets;
+        if(prev.words != this.words){
+            prevSets = new long[prev.sets.length][];
+            for(int id = 0; id < prevSets.length; id++){
+                prevSets[id] = Arrays.copyOf(prev.sets[id], this.words);
+            }
+        }
+        SubsetTable prevTable = new SubsetTable(prevSets.length);
+        for(long[] set : prevSets){
+            prevTable.add(set, SubsetTable.hash(set));
+        }
+
+        int k = this.classes.count();
+        int pk = prev.classes.count();
+        int cap = Math.max(64, prevSets.length);
+        SubsetTable table = new SubsetTable(cap);
+        int[][] members = new int[cap][];
+        String[] names = new String[cap]; //set only for subsets that keep their old name
+        int[] parent = new int[cap];
+        int[] via = new int[cap];
+        int[] prevIds = new int[cap]; //id -> id of the same subset in the snapshot or -1
+        int[] trans = new int[cap * Math.max(k, 1)];
+
+        int len = this.closures.appendClosure(this.startId, this.bits, this.order, 0);
+        int hash = SubsetTable.hash(this.bits);
+        table.add(this.bits, hash);
+        members[0] = Arrays.copyOf(this.order, len);
+        parent[0] = -1;
+        via[0] = -1;
+        prevIds[0] = prevTable.find(this.bits, hash);
+        if(prevIds[0] == 0){
+            names[0] = prev.names[0];
+        }
+
+        int queued = 0;
+        for(int cur = 0; cur < table.size(); cur++){
+            queued = Math.max(queued, table.size() - cur);
+            int pid = prevIds[cur];
+            long[] set = table.get(cur);
+            for(int j = 0; j < k; j++){
+                char c = this.classes.representative(j);
+                int pc = pid < 0 ? -1 : prev.classes.classOfChar(c);
+                int pt = -1; //target in the snapshot if the old move still holds
+                if(pc >= 0 && !intersects(set, touched.get(c))){
+                    pt = prev.trans[pid * pk + pc];
+                }
+                long[] next;
+                if(pt >= 0){
+                    next = prevSets[pt];
+                }else{
+                    len = target(members[cur], j);
+                    next = this.bits;
+                }
+                hash = SubsetTable.hash(next);
+                int id = table.find(next, hash);
+                if(id < 0){
+                    id = table.add(next, hash);
+                    if(id == members.length){
+                        members = Arrays.copyOf(members, id * 2);
+                        names = Arrays.copyOf(names, id * 2);
+                        parent = Arrays.copyOf(parent, id * 2);
+                        via = Arrays.copyOf(via, id * 2);
+                        prevIds = Arrays.copyOf(prevIds, id * 2);
+                    }
+                    parent[id] = cur;
+                    via[id] = j;
+                    if(pt < 0){
+                        prevIds[id] = prevTable.find(next, hash);
+                        members[id] = Arrays.copyOf(this.order, len);
+                    }else if(names[cur] != null && prev.parent[pt] == pid && prev.via[pt] == pc){
+                        //reached from the same subset with the same members on the same moves
+                        prevIds[id] = pt;
+                        members[id] = prev.members[pt];
+                        names[id] = prev.names[pt];
+                    }else{
+                        prevIds[id] = pt;
+                        members[id] = Arrays.copyOf(this.order, target(members[cur], j));
+                    }
+                }
+                if(cur * k + j >= trans.length){
+                    trans = Arrays.copyOf(trans, trans.length * 2);
+                }
+                trans[cur * k + j] = id;
+            }
+        }
+        long[][] sets = new long[table.size()][];
+        for(int id = 0; id < sets.length; id++){
+            sets[id] = table.get(id);
+        }
+        long explored = metrics.clock();
+        DFA dfa = toDFA(sets, members, names, trans, parent, via);
+        report(metrics, queued, started, explored);
+        return dfa;
+    }
+
+    /**
+     * @return the snapshot of the last construction, null if none finished
+     */
+    Snapshot snapshot(){
+        return this.snapshot;
+    }
+
+    /**
+     * Runs the subset construction in parallel. Every level of the
+     * breadth-first search is split into fork-join tasks; subsets are
+     * interned in a concurrent map and each task collects the subsets it
+     * discovered in a local list, which are merged into the next level.
+     * Each subset's transitions are only written by the task that expands
+     * it.
+     * @param pool the pool that runs the tasks
+     * @return the equivalent DFA
+     */
+    DFA runParallel(ForkJoinPool pool){
+        AutomatonMetrics metrics = Metrics.get();
+        long started = metrics.clock();
+        Map<Subset,Subset> interned = new ConcurrentHashMap<Subset,Subset>();
+        long[] startBits = new long[this.words];
+        this.closures.orClosure(this.startId, startBits);
+        Subset start = new Subset(startBits, this.classes.count());
+        interned.put(start, start);
+
+        List<Subset> level = new ArrayList<Subset>();
+        level.add(start);
+        int queued = 0;
+        while(!level.isEmpty()){
+            queued = Math.max(queued, level.size());
+            level = pool.invoke(new Expand(interned, level, 0, level.size()));
+        }
+        long explored = metrics.clock();
+        DFA dfa = number(start);
+        report(metrics, queued, started, explored);
+        return dfa;
+    }
+
+    private void report(AutomatonMetrics metrics, int queued, long started, long explored){
+        metrics.subsetConstruction(this.snapshot.sets.length, this.closureCount + this.parallelClosureCount.get(), queued,
+                explored - started, metrics.clock() - explored);
+    }
+
+    /**
+     * Expands a range of one BFS level and returns the new subsets it found
+     */
+    private final class Expand extends RecursiveTask<List<Subset>> {
+        private static final long serialVersionUID = 1L;
+        private static final int GRAIN = 16;
+        private final Map<Subset,Subset> interned;
+        private final List<Subset> level;
+        private final int from;
+        private final int to;
+
+        Expand(Map<Subset,Subset> interned, List<Subset> level, int from, int to){
+            this.interned = interned;
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Subset> compute(){
+            if(this.to - this.from > GRAIN){
+                int mid = (this.from + this.to) >>> 1;
+                Expand left = new Expand(this.interned, this.level, this.from, mid);
+                left.fork();
+                List<Subset> right = new Expand(this.interned, this.level, mid, this.to).compute();
+                List<Subset> found = left.join();
+                found.addAll(right);
+                return found;
+            }
+            List<Subset> found = new ArrayList<Subset>();
+            long merged = 0;
+            for(int i = this.from; i < this.to; i++){
+                Subset cur = this.level.get(i);
+                for(int j = 0; j < classes.count(); j++){
+                    long[] bits = new long[words];
+                    long[] src = cur.bits;
+                    for(int w = 0; w < words; w++){
+                        long word = src[w];
+                        while(word != 0){
+                            int q = (w << 6) + Long.numberOfTrailingZeros(word);
+                            word &= word - 1;
+                            int[] succ = delta[q][j];
+                            if(succ != null){
+                                for(int t : succ){
+                                    closures.orClosure(t, bits);
+                                }
+                                merged += succ.length;
+                            }
+                        }
+                    }
+                    Subset next = new Subset(bits, classes.count());
+                    Subset known = this.interned.putIfAbsent(next, next);
+                    if(known == null){
+                        found.add(next);
+                        known = next;
+                    }
+                    cur.next[j] = known;
+                }
+            }
+            parallelClosureCount.addAndGet(merged);
+            return found;
+        }
+    }
+
+    /**
+     * Numbers the subsets reachable from start in the order the serial
+     * breadth-first search discovers them, names them and emits the DFA
+     * @param start the start subset
+     * @return the equivalent DFA
+     */
+    private DFA number(Subset start){
+        int k = this.classes.count();
+        Map<Subset,Integer> ids = new IdentityHashMap<Subset,Integer>();
+        List<Subset> byId = new ArrayList<Subset>();
+        int[][] members = new int[64][];
+        int[] parent = new int[64];
+        int[] via = new int[64];
+        int[] trans = new int[64 * Math.max(k, 1)];
+
+        Arrays.fill(this.bits, 0L);
+        int len = this.closures.appendClosure(this.startId, this.bits, this.order, 0);
+        ids.put(start, 0);
+        byId.add(start);
+        members[0] = Arrays.copyOf(this.order, len);
+        parent[0] = -1;
+        via[0] = -1;
+        for(int cur = 0; cur < byId.size(); cur++){
+            Subset s = byId.get(cur);
+            for(int j = 0; j < k; j++){
+                Integer id = ids.get(s.next[j]);
+                if(id == null){
+                    id = byId.size();
+                    ids.put(s.next[j], id);
+                    byId.add(s.next[j]);
+                    if(id == members.length){
+                        members = Arrays.copyOf(members, id * 2);
+                        parent = Arrays.copyOf(parent, id * 2);
+                        via = Arrays.copyOf(via, id * 2);
+                    }
+                    //name the subset after its first discovery, as run does
+                    members[id] = Arrays.copyOf(this.order, target(members[cur], j));
+                    parent[id] = cur;
+                    via[id] = j;
+                }
+                if(cur * k + j >= trans.length){
+                    trans = Arrays.copyOf(trans, trans.length * 2);
+                }
+                trans[cur * k + j] = id;
+            }
+        }
+        long[][] sets = new long[byId.size()][];
+        for(int id = 0; id < sets.length; id++){
+            sets[id] = byId.get(id).bits;
+        }
+        return toDFA(sets, members, new String[sets.length], trans, parent, via);
+    }
+
+    /**
+     * A DFA state found by the parallel construction
+     */
+    static final class Subset {
+        final long[] bits;
+        final int hash;
+        final Subset[] next; //symbol class -> target subset
+
+        Subset(long[] bits, int symbols){
+            this.bits = bits;
+            this.hash = SubsetTable.hash(bits);
+            this.next = new Subset[symbols];
+        }
+
+        @Override
+        public int hashCode(){
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            return o instanceof Subset && ((Subset) o).hash == this.hash
+                    && Arrays.equals(((Subset) o).bits, this.bits);
+        }
+    }
+
+    /**
+     * Computes the subset reached from a subset on one symbol, closed under
+     * epsilon transitions. The result is left in bits and order.
+     * @param from the members of the source subset in name order
+     * @param sym the symbol class
+     * @return the number of members written to order
+     */
+    private int target(int[] from, int sym){
+        //first collect the states reachable on the symbol
+        int moves = 0;
+        for(int m : from){
+            int[] to = this.delta[m][sym];
+            if(to == null){
+                continue;
+            }
+            for(int t : to){
+                if(!isSet(this.seen, t)){
+                    this.seen[t >>> 6] |= 1L << t;
+                    this.moved[moves++] = t;
+                }
+            }
+        }
+        //then close them under epsilon
+        Arrays.fill(this.bits, 0L);
+        int len = 0;
+        for(int i = 0; i < moves; i++){
+            int t = this.moved[i];
+            this.seen[t >>> 6] &= ~(1L << t);
+            len = this.closures.appendClosure(t, this.bits, this.order, len);
+        }
+        this.closureCount += moves;
+        return len;
+    }
+
+    /**
+     * Emits the discovered subsets and transitions as a DFA and keeps them
+     * as the snapshot
+     * @param names the names known already, null where a name is to be built
+     */
+    private DFA toDFA(long[][] sets, int[][] members, String[] names, int[] trans, int[] parent, int[] via){
+        int size = sets.length;
+        int k = this.symbols.length;
+        int c = this.classes.count();
+        names = Arrays.copyOf(names, size);
+        DFA dfa = new DFA();
+        for(int id = 0; id < size; id++){
+            if(names[id] == null){
+                names[id] = name(members[id]);
+            }
+            boolean isFinal = intersects(sets[id], this.finals);
+            if(id == 0){
+                dfa.addStartState(names[id], isFinal);
+            }else if(isFinal){
+                dfa.addFinalState(names[id]);
+            }else{
+                dfa.addState(names[id]);
+            }
+        }
+        String[] from = new String[size * k];
+        char[] onSymbs = new char[size * k];
+        String[] to = new String[size * k];
+        for(int id = 0; id < size; id++){
+            for(int j = 0; j < k; j++){
+                from[id * k + j] = names[id];
+                onSymbs[id * k + j] = this.symbols[j];
+                to[id * k + j] = names[trans[id * c + this.classes.classOf(j)]];
+            }
+        }
+        dfa.addTransitions(from, onSymbs, to);
+        this.snapshot = new Snapshot(this, sets, Arrays.copyOf(members, size), names,
+                Arrays.copyOf(trans, size * c), Arrays.copyOf(parent, size), Arrays.copyOf(via, size));
+        return dfa;
+    }
+
+    /**
+     * What a finished construction keeps for the next one: the subsets by
+     * DFA state id with their members, names and transitions, and the edge
+     * each subset was first reached on. A snapshot is never modified.
+     */
+    static final class Snapshot {
+        final SymbolClasses classes;
+        final int startId;
+        final int words;
+        final long[][] sets;
+        final int[][] members; //id -> members in name order
+        final String[] names;
+        final int[] trans; //[id * classes + class] -> id
+        final int[] parent; //id -> id of the subset it was first reached from, -1 for the start
+        final int[] via; //id -> class it was first reached on
+
+        Snapshot(SubsetConstruction sc, long[][] sets, int[][] members, String[] names,
+                int[] trans, int[] parent, int[] via){
+            this.classes = sc.classes;
+            this.startId = sc.startId;
+            this.words = sc.words;
+            this.sets = sets;
+            this.members = members;
+            this.names = names;
+            this.trans = trans;
+            this.parent = parent;
+            this.via = via;
+        }
+    }
+
+    /**
+     * Builds the same label Set.toString() gives the subset
+     * @param ids
+     * @return the DFA state name
+     */
+    private String name(int[] ids){
+        StringBuilder sb = new StringBuilder(ids.length * 4 + 2);
+        sb.append('[');
+        for(int i = 0; i < ids.length; i++){
+            if(i > 0){
+                sb.append(", ");
+            }
+            sb.append(this.nfaStates[ids[i]].getName());
+        }
+        return sb.append(']').toString();
+    }
+
+    private static int[] toIds(NFAState[] set, Map<NFAState,Integer> ids){
+        int[] ret = new int[set.length];
+        int i = 0;
+        for(NFAState s : set){
+            ret[i++] = ids.get(s);
+        }
+        return ret;
+    }
+
+    private static boolean isSet(long[] bits, int i){
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static boolean intersects(long[] a, long[] b){
+        if(b == null){
+            return false;
+        }
+        for(int i = 0; i < a.length; i++){
+            if((a[i] & b[i]) != 0){
+                return true;
+            }
+        }
+        return false;
+    }
+}
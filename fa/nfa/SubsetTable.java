@@ -0,0 +1,122 @@
+package fa.nfa;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing table of the NFA state subsets discovered while
+ * determinizing. Every subset is a long[] bitset over the dense NFA
+ * state ids and is kept together with its precomputed hash, so finding
+ * a subset costs one probe sequence and an array compare per collision.
+ * Subsets are numbered in the order they were added.
+ */
+final class SubsetTable {
+
+    private long[][] sets; //id -> bitset
+    private int[] hashes; //id -> hash of the bitset
+    private int[] slots; //slot -> id + 1, 0 marks an empty slot
+    private int size;
+
+    SubsetTable(int expected){
+        int cap = 16;
+        while(cap < expected * 2){
+            cap <<= 1;
+        }
+        this.slots = new int[cap];
+        this.sets = new long[Math.max(expected, 4)][];
+        this.hashes = new int[this.sets.length];
+        this.size = 0;
+    }
+
+    /**
+     * Hashes a bitset the same way for lookups and insertions
+     * @param bits
+     * @return the mixed hash of the bitset
+     */
+    static int hash(long[] bits){
+        long h = 1;
+        for(long word : bits){
+            h = h * 0x9E3779B97F4A7C15L + word;
+        }
+        h ^= (h >>> 32);
+        return (int) (h ^ (h >>> 16));
+    }
+
+    /**
+     * Looks up a subset
+     * @param bits
+     * @param hash the value of hash(bits)
+     * @return the id of the subset or -1 if it was never added
+     */
+    int find(long[] bits, int hash){
+        int mask = this.slots.length - 1;
+        int i = hash & mask;
+        int slot;
+        while((slot = this.slots[i]) != 0){
+            int id = slot - 1;
+            if(this.hashes[id] == hash && Arrays.equals(this.sets[id], bits)){
+                return id;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a subset that is not in the table yet. The bitset is copied,
+     * so callers may keep reusing their scratch array.
+     * @param bits
+     * @param hash the value of hash(bits)
+     * @return the id given to the new subset
+     */
+    int add(long[] bits, int hash){
+        if(this.size == this.sets.length){
+            this.sets = Arrays.copyOf(this.sets, this.size * 2);
+            this.hashes = Arrays.copyOf(this.hashes, this.size * 2);
+        }
+        if((this.size + 1) * 2 > this.slots.length){
+            rehash(this.slots.length * 2);
+        }
+        int id = this.size++;
+        this.sets[id] = bits.clone();
+        this.hashes[id] = hash;
+        insertSlot(id);
+        return id;
+    }
+
+    /**
+     * @param id
+     * @return the bitset of the subset, must not be modified
+     */
+    long[] get(int id){
+        return this.sets[id];
+    }
+
+    int size(){
+        return this.size;
+    }
+
+    /**
+     * Removes every subset, ids start from 0 again
+     */
+    void clear(){
+        Arrays.fill(this.slots, 0);
+        Arrays.fill(this.sets, 0, this.size, null);
+        this.size = 0;
+    }
+
+    private void rehash(int capacity){
+        this.slots = new int[capacity];
+        for(int id = 0; id < this.size; id++){
+            insertSlot(id);
+        }
+    }
+
+    private void insertSlot(int id){
+        int mask = this.slots.length - 1;
+        int i = this.hashes[id] & mask;
+        while(this.slots[i] != 0){
+            i = (i + 1) & mask;
+        }
+        this.slots[i] = id + 1;
+    }
+}
@@ -0,0 +1,118 @@
+package fa.nfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Partition of the input alphabet of an NFA into symbol classes.
+ * Two symbols are in the same class if every state has the same
+ * successors on both of them, so no transition can tell them apart and
+ * the engines only need to compute one move per class. Classes are
+ * numbered in the order of their first symbol in the alphabet.
+ * Epsilon is not part of the alphabet and has no class.
+ */
+final class SymbolClasses {
+
+    private final char[] symbols; //symbol index -> character, in alphabet order
+    private final int[] classOf; //symbol index -> class
+    private final int[] first; //class -> index of its first symbol
+    private final int[] classOfChar; //character -> class, -1 if not in the alphabet
+
+    SymbolClasses(NFAState[] states, Set<Character> abc){
+        int k = abc.size();
+        this.symbols = new char[k];
+        int max = -1;
+        int j = 0;
+        for(char c : abc){
+            this.symbols[j++] = c;
+            max = Math.max(max, c);
+        }
+
+        this.classOf = new int[k];
+        int[] firsts = new int[Math.max(k, 1)];
+        int count = 0;
+        Map<Long,List<Integer>> byHash = new HashMap<Long,List<Integer>>();
+        for(j = 0; j < k; j++){
+            long h = 1;
+            for(NFAState s : states){
+                h = h * 31 + Arrays.hashCode(s.successors(this.symbols[j]));
+            }
+            List<Integer> candidates = byHash.get(h);
+            if(candidates == null){
+                candidates = new ArrayList<Integer>(1);
+                byHash.put(h, candidates);
+            }
+            int cls = -1;
+            for(int c : candidates){
+                if(sameMoves(states, this.symbols[firsts[c]], this.symbols[j])){
+                    cls = c;
+                    break;
+                }
+            }
+            if(cls < 0){
+                cls = count++;
+                firsts[cls] = j;
+                candidates.add(cls);
+            }
+            this.classOf[j] = cls;
+        }
+        this.first = Arrays.copyOf(firsts, count);
+
+        this.classOfChar = new int[max + 1];
+        Arrays.fill(this.classOfChar, -1);
+        for(j = 0; j < k; j++){
+            this.classOfChar[this.symbols[j]] = this.classOf[j];
+        }
+    }
+
+    private static boolean sameMoves(NFAState[] states, char a, char b){
+        for(NFAState s : states){
+            if(!Arrays.equals(s.successors(a), s.successors(b))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of classes
+     */
+    int count(){
+        return this.first.length;
+    }
+
+    /**
+     * @return the input alphabet in order, must not be modified
+     */
+    char[] symbols(){
+        return this.symbols;
+    }
+
+    /**
+     * @param symbol an index into symbols()
+     * @return the class of the symbol
+     */
+    int classOf(int symbol){
+        return this.classOf[symbol];
+    }
+
+    /**
+     * @param c a character
+     * @return the class of c or -1 if c is not in the alphabet
+     */
+    int classOfChar(char c){
+        return c < this.classOfChar.length ? this.classOfChar[c] : -1;
+    }
+
+    /**
+     * @param cls a class
+     * @return the first symbol of the class, whose moves stand for the class
+     */
+    char representative(int cls){
+        return this.symbols[this.first[cls]];
+    }
+}
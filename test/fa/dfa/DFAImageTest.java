@@ -0,0 +1,130 @@
+package fa.dfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fa.nfa.NFA;
+
+/**
+ * A DFA saved as an image and mapped again, or copied off the heap,
+ * accepts the same strings as the DFA that getDFA() returned, and with
+ * the names kept it prints the same.
+ */
+public class DFAImageTest {
+
+    private static final String ABC = "abc";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void sameLanguageAsGetDFA() throws IOException {
+        Random r = new Random(9);
+        for(int seed = 0; seed < 1000; seed++){
+            //a file that is still mapped is not written again
+            Path file = dir.resolve("dfa" + seed + ".img");
+            NFA nfa = random(r);
+            DFA dfa = nfa.getDFA();
+            if(r.nextBoolean()){
+                dfa.minimize();
+            }
+            boolean withNames = r.nextBoolean();
+            dfa.save(file, withNames);
+            OffHeapDFA mapped = OffHeapDFA.map(file);
+            OffHeapDFA copy = OffHeapDFA.copyOf(dfa, withNames);
+            String what = "seed " + seed + "\n" + dfa;
+            assertEquals(dfa.getStates().size(), mapped.getStates().size(), what);
+            assertEquals(dfa.getABC(), mapped.getABC(), what);
+            for(String w : words(r)){
+                boolean expected = accepts(dfa, w);
+                assertEquals(expected, mapped.accepts(w), what + "\n" + w);
+                assertEquals(expected, copy.accepts(w), what + "\n" + w);
+            }
+            if(withNames){
+                assertEquals(dfa.toString(), mapped.toString(), what);
+                assertEquals(dfa.toString(), copy.toString(), what);
+            }
+        }
+    }
+
+    @Test
+    public void invalidImages() throws IOException {
+        NFA nfa = new NFA();
+        nfa.addStartState("s");
+        nfa.addFinalState("f");
+        nfa.addTransition("s", 'a', "f");
+        Path file = dir.resolve("dfa.img");
+        nfa.getDFA().save(file, true);
+        byte[] bytes = Files.readAllBytes(file);
+
+        assertThrows(IllegalArgumentException.class, () -> DFAImage.wrap(ByteBuffer.wrap(new byte[8])));
+        byte[] magic = bytes.clone();
+        magic[0]++;
+        assertThrows(IllegalArgumentException.class, () -> DFAImage.wrap(ByteBuffer.wrap(magic)));
+        byte[] version = bytes.clone();
+        version[4] = 99;
+        assertThrows(IllegalArgumentException.class, () -> DFAImage.wrap(ByteBuffer.wrap(version)));
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 8);
+        assertThrows(IllegalArgumentException.class, () -> DFAImage.wrap(ByteBuffer.wrap(truncated)));
+        assertFalse(DFAImage.wrap(ByteBuffer.wrap(bytes)).accepts("b"));
+    }
+
+    /**
+     * The words are read by the DFA, which throws on symbols outside its
+     * alphabet, and by the image, which rejects them
+     */
+    private static boolean accepts(DFA dfa, String w){
+        for(int i = 0; i < w.length(); i++){
+            if(!dfa.getABC().contains(w.charAt(i))){
+                return false;
+            }
+        }
+        return dfa.accepts(w);
+    }
+
+    private static List<String> words(Random r){
+        List<String> words = new ArrayList<String>();
+        words.add("");
+        for(int i = 0; i < 40; i++){
+            StringBuilder w = new StringBuilder();
+            int n = 1 + r.nextInt(8);
+            for(int j = 0; j < n; j++){
+                w.append("abcx".charAt(r.nextInt(4)));
+            }
+            words.add(w.toString());
+        }
+        return words;
+    }
+
+    private static NFA random(Random r){
+        NFA nfa = new NFA();
+        int n = 1 + r.nextInt(7);
+        nfa.addStartState("s0");
+        for(int i = 1; i < n; i++){
+            if(r.nextInt(3) == 0){
+                nfa.addFinalState("s" + i);
+            }else{
+                nfa.addState("s" + i);
+            }
+        }
+        int m = r.nextInt(3 * n + 2);
+        for(int i = 0; i < m; i++){
+            char c = r.nextInt(5) == 0 ? 'e' : ABC.charAt(r.nextInt(ABC.length()));
+            nfa.addTransition("s" + r.nextInt(n), c, "s" + r.nextInt(n));
+        }
+        return nfa;
+    }
+}
@@ -0,0 +1,76 @@
+package fa.dfa;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * DFA.accepts stops at dead states and accepting sinks as the compiled
+ * form of the DFA classifies them. A change to the DFA or to one of its
+ * states after a match must not leave that classification behind.
+ */
+public class EarlyExitTest {
+
+    /**
+     * s -a-> p -a-> t, everything else of s, p and t goes to t, and the
+     * final state f loops on every symbol
+     */
+    private static DFA dfa(){
+        DFA dfa = new DFA();
+        dfa.addStartState("s");
+        dfa.addState("p");
+        dfa.addState("t");
+        dfa.addFinalState("f");
+        dfa.addTransition("s", 'a', "p");
+        dfa.addTransition("s", 'b', "t");
+        dfa.addTransition("p", 'a', "t");
+        dfa.addTransition("p", 'b', "t");
+        dfa.addTransition("t", 'a', "t");
+        dfa.addTransition("t", 'b', "t");
+        dfa.addTransition("f", 'a', "f");
+        dfa.addTransition("f", 'b', "f");
+        return dfa;
+    }
+
+    private static DFAState state(DFA dfa, String name){
+        for(DFAState s : dfa.getStates()){
+            if(s.getName().equals(name)){
+                return s;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    @Test
+    public void changedThroughTheDFA(){
+        DFA dfa = dfa();
+        assertFalse(dfa.accepts("abb"));
+        dfa.addTransition("t", 'b', "f");
+        assertTrue(dfa.accepts("abb"));
+        //f is no longer an accepting sink
+        dfa.addState("g");
+        dfa.addTransition("g", 'a', "g");
+        dfa.addTransition("g", 'b', "g");
+        dfa.addTransition("f", 'a', "g");
+        assertTrue(dfa.accepts("abbb"));
+        assertFalse(dfa.accepts("abba"));
+    }
+
+    @Test
+    public void changedThroughAState(){
+        DFA dfa = dfa();
+        assertFalse(dfa.accepts("abb"));
+        long before = dfa.getModCount();
+        //t and p, which only reaches t, are no longer dead
+        state(dfa, "t").addTransition('b', state(dfa, "f"));
+        assertNotEquals(before, dfa.getModCount());
+        assertTrue(dfa.accepts("abb"));
+        assertTrue(dfa.accepts("abba"));
+        //f is no longer an accepting sink
+        state(dfa, "f").addTransition('a', state(dfa, "t"));
+        assertFalse(dfa.accepts("abba"));
+        assertTrue(dfa.accepts("abbab"));
+    }
+}
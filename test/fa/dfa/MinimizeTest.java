@@ -0,0 +1,138 @@
+package fa.dfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import fa.nfa.NFA;
+
+/**
+ * DFA.minimize() merges equivalent states and drops unreachable ones. The
+ * minimized DFA must accept the same strings as the DFA that getDFA()
+ * returned, and minimizing it again must remove nothing.
+ */
+public class MinimizeTest {
+
+    private static final String ABC = "abc";
+
+    @Test
+    public void sameLanguageAsGetDFA(){
+        Random r = new Random(5);
+        for(int seed = 0; seed < 2000; seed++){
+            NFA nfa = random(r);
+            DFA dfa = nfa.getDFA();
+            List<String> words = words(r, dfa);
+            boolean[] expected = new boolean[words.size()];
+            for(int i = 0; i < expected.length; i++){
+                expected[i] = dfa.accepts(words.get(i));
+            }
+            int before = dfa.getStates().size();
+            int removed = dfa.minimize();
+            String what = "seed " + seed + "\n" + nfa.getDFA();
+            assertEquals(before - removed, dfa.getStates().size(), what);
+            for(int i = 0; i < expected.length; i++){
+                assertEquals(expected[i], dfa.accepts(words.get(i)), what + "\n" + words.get(i));
+            }
+            assertEquals(0, dfa.minimize(), what);
+        }
+    }
+
+    /**
+     * q1 and q2 both go to q3 on every symbol, and u cannot be reached
+     */
+    @Test
+    public void mergesIntoTheFirstState(){
+        DFA dfa = new DFA();
+        dfa.addStartState("q0");
+        dfa.addState("q1");
+        dfa.addState("q2");
+        dfa.addFinalState("q3");
+        dfa.addState("u");
+        dfa.addTransition("q0", 'a', "q1");
+        dfa.addTransition("q0", 'b', "q2");
+        dfa.addTransition("q1", 'a', "q3");
+        dfa.addTransition("q1", 'b', "q3");
+        dfa.addTransition("q2", 'a', "q3");
+        dfa.addTransition("q2", 'b', "q3");
+        dfa.addTransition("q3", 'a', "q3");
+        dfa.addTransition("q3", 'b', "q3");
+        dfa.addTransition("u", 'a', "q0");
+        dfa.addTransition("u", 'b', "q0");
+        assertEquals(2, dfa.minimize());
+        assertEquals(3, dfa.getStates().size());
+        assertNotNull(find(dfa, "q1"));
+        assertNull(find(dfa, "q2"));
+        assertNull(find(dfa, "u"));
+        assertEquals(find(dfa, "q1"), dfa.getToState(dfa.getStartState(), 'b'));
+        assertFalse(dfa.accepts("a"));
+        assertTrue(dfa.accepts("ba"));
+        assertTrue(dfa.accepts("abba"));
+    }
+
+    private static DFAState find(DFA dfa, String name){
+        for(DFAState s : dfa.getStates()){
+            if(s.getName().equals(name)){
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return every word of up to four symbols of the DFA's alphabet and
+     * a few longer ones
+     */
+    private static List<String> words(Random r, DFA dfa){
+        StringBuilder abc = new StringBuilder();
+        for(char c : dfa.getABC()){
+            abc.append(c);
+        }
+        List<String> words = new ArrayList<String>();
+        words.add("");
+        for(int from = 0, len = 1; len <= 4; len++){
+            int to = words.size();
+            for(int i = from; i < to; i++){
+                for(int j = 0; j < abc.length(); j++){
+                    words.add(words.get(i) + abc.charAt(j));
+                }
+            }
+            from = to;
+        }
+        for(int i = 0; i < 20 && abc.length() > 0; i++){
+            StringBuilder w = new StringBuilder();
+            int n = 5 + r.nextInt(10);
+            for(int j = 0; j < n; j++){
+                w.append(abc.charAt(r.nextInt(abc.length())));
+            }
+            words.add(w.toString());
+        }
+        return words;
+    }
+
+    private static NFA random(Random r){
+        NFA nfa = new NFA();
+        int n = 1 + r.nextInt(7);
+        nfa.addStartState("s0");
+        for(int i = 1; i < n; i++){
+            if(r.nextInt(3) == 0){
+                nfa.addFinalState("s" + i);
+            }else{
+                nfa.addState("s" + i);
+            }
+        }
+        int m = r.nextInt(3 * n + 2);
+        for(int i = 0; i < m; i++){
+            char c = r.nextInt(5) == 0 ? 'e' : ABC.charAt(r.nextInt(ABC.length()));
+            nfa.addTransition("s" + r.nextInt(n), c, "s" + r.nextInt(n));
+        }
+        return nfa;
+    }
+}
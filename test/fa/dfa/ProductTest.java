@@ -0,0 +1,176 @@
+package fa.dfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import fa.nfa.NFA;
+
+/**
+ * The product operations of DFAInterface on DFAs of random NFAs, checked
+ * against accepts on every string of up to five symbols. A symbol that a
+ * DFA does not know makes it reject.
+ */
+public class ProductTest {
+
+    private static final String ABC = "abc";
+    private static final List<String> WORDS = words(5);
+
+    @Test
+    public void sameAsAccepts(){
+        Random r = new Random(13);
+        for(int seed = 0; seed < 1000; seed++){
+            DFA a = random(r).getDFA();
+            DFA b = random(r).getDFA();
+            String what = "seed " + seed + "\n" + a + "\n" + b;
+            DFA and = a.intersection(b);
+            DFA or = a.union(b);
+            DFA minus = a.difference(b);
+            DFA not = a.complement();
+            for(String w : WORDS){
+                boolean x = accepts(a, w);
+                boolean y = accepts(b, w);
+                assertEquals(x && y, accepts(and, w), what + "\nintersection " + w);
+                assertEquals(x || y, accepts(or, w), what + "\nunion " + w);
+                assertEquals(x && !y, accepts(minus, w), what + "\ndifference " + w);
+                assertEquals(known(a, w) && !x, accepts(not, w), what + "\ncomplement " + w);
+            }
+        }
+    }
+
+    @Test
+    public void witnesses(){
+        Random r = new Random(17);
+        for(int seed = 0; seed < 1000; seed++){
+            //few states, so that equal languages come up too
+            DFA a = random(r).getDFA();
+            DFA b = random(r).getDFA();
+            String what = "seed " + seed + "\n" + a + "\n" + b;
+
+            String shortest = a.shortestAccepted();
+            assertEquals(shortest == null, a.isEmpty(), what);
+            checkShortest(shortest, w -> accepts(a, w), what + "\nshortest accepted");
+
+            String counter = a.subsetCounterexample(b);
+            assertEquals(counter == null, a.isSubsetOf(b), what);
+            checkShortest(counter, w -> accepts(a, w) && !accepts(b, w), what + "\nsubset counterexample");
+
+            String diff = a.distinguishingString(b);
+            assertEquals(diff == null, a.equivalent(b), what);
+            if(diff == null){
+                for(String w : WORDS){
+                    assertEquals(accepts(a, w), accepts(b, w), what + "\nequivalent " + w);
+                }
+            }else{
+                assertNotEquals(accepts(a, diff), accepts(b, diff), what + "\ndistinguishing " + diff);
+            }
+
+            assertTrue(a.equivalent(a.intersection(a)), what);
+            assertTrue(a.equivalent(a.complement().complement()), what);
+            assertTrue(a.equivalent(OffHeapDFA.copyOf(a, false)), what);
+            assertTrue(a.intersection(b).isSubsetOf(a), what);
+            assertTrue(a.isSubsetOf(a.union(b)), what);
+            assertTrue(a.intersection(a.complement()).isEmpty(), what);
+        }
+    }
+
+    @Test
+    public void emptyString(){
+        NFA nfa = new NFA();
+        nfa.addStartState("s");
+        nfa.addFinalState("f");
+        nfa.addTransition("s", 'a', "f");
+        nfa.addTransition("f", 'a', "f");
+        DFA plus = nfa.getDFA();
+        assertEquals("a", plus.shortestAccepted());
+        assertEquals("", plus.complement().shortestAccepted());
+        assertNull(plus.difference(plus.complement().complement()).shortestAccepted());
+        assertFalse(plus.union(plus.complement()).isEmpty());
+    }
+
+    private interface Language {
+        boolean accepts(String w);
+    }
+
+    /**
+     * Checks that a witness is in a language and that no shorter string
+     * of up to five symbols is, or that there is none if it is null
+     */
+    private static void checkShortest(String witness, Language l, String what){
+        for(String w : WORDS){
+            if(witness != null && w.length() >= witness.length()){
+                break;
+            }
+            assertFalse(l.accepts(w), what + ": " + witness + " but " + w);
+        }
+        if(witness != null){
+            assertTrue(l.accepts(witness), what + ": " + witness);
+        }
+    }
+
+    private static boolean known(DFA dfa, String w){
+        for(int i = 0; i < w.length(); i++){
+            if(!dfa.getABC().contains(w.charAt(i))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * DFA.accepts throws on a symbol outside the alphabet, the products
+     * reject it
+     */
+    private static boolean accepts(DFA dfa, String w){
+        return known(dfa, w) && dfa.accepts(w);
+    }
+
+    /**
+     * @return every string of up to n symbols of ABC, shortest first
+     */
+    private static List<String> words(int n){
+        List<String> words = new ArrayList<String>();
+        words.add("");
+        for(int from = 0, len = 1; len <= n; len++){
+            int to = words.size();
+            for(int i = from; i < to; i++){
+                for(int j = 0; j < ABC.length(); j++){
+                    words.add(words.get(i) + ABC.charAt(j));
+                }
+            }
+            from = to;
+        }
+        return words;
+    }
+
+    /**
+     * @return an NFA of up to four states over a random part of ABC
+     */
+    private static NFA random(Random r){
+        NFA nfa = new NFA();
+        int n = 1 + r.nextInt(4);
+        String abc = ABC.substring(r.nextInt(2), 2 + r.nextInt(2));
+        nfa.addStartState("s0");
+        for(int i = 1; i < n; i++){
+            if(r.nextInt(3) == 0){
+                nfa.addFinalState("s" + i);
+            }else{
+                nfa.addState("s" + i);
+            }
+        }
+        int m = r.nextInt(3 * n + 2);
+        for(int i = 0; i < m; i++){
+            char c = r.nextInt(5) == 0 ? 'e' : abc.charAt(r.nextInt(abc.length()));
+            nfa.addTransition("s" + r.nextInt(n), c, "s" + r.nextInt(n));
+        }
+        return nfa;
+    }
+}
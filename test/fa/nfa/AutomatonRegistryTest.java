@@ -0,0 +1,369 @@
+package fa.nfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import fa.State;
+import fa.dfa.CompiledDFA;
+import fa.dfa.DFA;
+
+/**
+ * The lookups of AutomatonRegistry: NFAs of the same structure share one
+ * build, a failed build is not cached, and the least recently used DFAs
+ * are evicted to keep the budget, also under concurrent lookups.
+ */
+public class AutomatonRegistryTest {
+
+    private static final String ABC = "abc";
+
+    @Test
+    public void concurrentLookups() throws Exception {
+        Random r = new Random(3);
+        List<NFA> base = new ArrayList<NFA>();
+        List<CompiledDFA> expected = new ArrayList<CompiledDFA>();
+        //random NFAs may share a structure, so count the structures first
+        AutomatonRegistry structures = new AutomatonRegistry(Long.MAX_VALUE);
+        while(base.size() < 40){
+            NFA nfa = random(r, 8);
+            base.add(nfa);
+            expected.add(nfa.getDFA().compile());
+            structures.get(nfa);
+        }
+        for(long budget : new long[]{Long.MAX_VALUE, 4000}){
+            AutomatonRegistry registry = new AutomatonRegistry(budget);
+            AtomicInteger wrong = new AtomicInteger();
+            AtomicInteger overBudget = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            try{
+                List<Future<?>> done = new ArrayList<Future<?>>();
+                for(int t = 0; t < 8; t++){
+                    Random tr = new Random(t);
+                    done.add(pool.submit(() -> {
+                        for(int i = 0; i < 2000; i++){
+                            int k = tr.nextInt(base.size());
+                            //the same structure under other names, transitions added in another order
+                            NFA nfa = copy(base.get(k), "p" + tr.nextInt(3), tr.nextBoolean());
+                            CompiledDFA dfa = registry.get(nfa);
+                            for(int j = 0; j < 5; j++){
+                                String w = word(tr, 8);
+                                if(dfa.accepts(w) != expected.get(k).accepts(w)){
+                                    wrong.incrementAndGet();
+                                }
+                            }
+                            if(registry.getUsedBytes() > budget){
+                                overBudget.incrementAndGet();
+                            }
+                        }
+                    }));
+                }
+                for(Future<?> f : done){
+                    f.get();
+                }
+            }finally{
+                pool.shutdown();
+            }
+            assertEquals(0, wrong.get(), "wrong DFAs with budget " + budget);
+            assertEquals(0, overBudget.get(), "budget " + budget + " exceeded");
+            assertEquals(8 * 2000, registry.getHitCount() + registry.getMissCount());
+            assertEquals(0, registry.getFailureCount());
+            if(budget == Long.MAX_VALUE){
+                assertEquals(structures.size(), registry.getMissCount(), "every structure is built once");
+                assertEquals(0, registry.getEvictionCount());
+            }else{
+                assertTrue(registry.getEvictionCount() > 0, "a small budget evicts");
+            }
+        }
+    }
+
+    @Test
+    public void sharedBuild() throws Exception {
+        AutomatonRegistry registry = new AutomatonRegistry(Long.MAX_VALUE);
+        CountDownLatch release = new CountDownLatch(1);
+        NFA first = new BlockingNFA(release, false);
+        chain(first, 10);
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        try{
+            List<Future<CompiledDFA>> results = new ArrayList<Future<CompiledDFA>>();
+            results.add(pool.submit(() -> registry.get(first)));
+            while(registry.getMissCount() == 0){
+                Thread.yield();
+            }
+            for(int t = 0; t < 5; t++){
+                NFA other = new NFA();
+                chain(other, 10);
+                results.add(pool.submit(() -> registry.get(other)));
+            }
+            //every lookup waits for the build that is still blocked
+            while(registry.getHitCount() < 5){
+                Thread.yield();
+            }
+            release.countDown();
+            Set<CompiledDFA> distinct = Collections.newSetFromMap(new IdentityHashMap<CompiledDFA,Boolean>());
+            for(Future<CompiledDFA> f : results){
+                distinct.add(f.get());
+            }
+            assertEquals(1, distinct.size());
+        }finally{
+            pool.shutdown();
+        }
+        assertEquals(1, registry.getMissCount());
+        assertEquals(5, registry.getSharedBuildCount());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void failedBuild() throws Exception {
+        AutomatonRegistry registry = new AutomatonRegistry(Long.MAX_VALUE);
+        CountDownLatch release = new CountDownLatch(1);
+        NFA failing = new BlockingNFA(release, true);
+        chain(failing, 4);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try{
+            Future<CompiledDFA> owner = pool.submit(() -> registry.get(failing));
+            while(registry.getMissCount() == 0){
+                Thread.yield();
+            }
+            NFA other = new NFA();
+            chain(other, 4);
+            Future<CompiledDFA> waiter = pool.submit(() -> registry.get(other));
+            while(registry.getHitCount() < 1){
+                Thread.yield();
+            }
+            release.countDown();
+            //the owner and the thread sharing its build both see the failure
+            for(Future<CompiledDFA> f : List.of(owner, waiter)){
+                ExecutionException e = assertThrows(ExecutionException.class, f::get);
+                assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+            }
+        }finally{
+            pool.shutdown();
+        }
+        assertEquals(1, registry.getFailureCount());
+        assertEquals(0, registry.size(), "a failed build is not cached");
+
+        NFA retry = new NFA();
+        chain(retry, 4);
+        CompiledDFA dfa = registry.get(retry);
+        assertTrue(dfa.accepts("aaaa"));
+        assertEquals(2, registry.getMissCount());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted(){
+        NFA a = single('a');
+        NFA b = single('b');
+        NFA c = single('c');
+        long sa = a.getDFA().compile().getMemorySize();
+        long sb = b.getDFA().compile().getMemorySize();
+        long sc = c.getDFA().compile().getMemorySize();
+
+        //room for a and either of the others, but not for all three
+        AutomatonRegistry registry = new AutomatonRegistry(sa + Math.max(sb, sc));
+        CompiledDFA da = registry.get(a);
+        registry.get(b);
+        assertSame(da, registry.get(a));//a is now used more recently than b
+        registry.get(c);
+        assertEquals(1, registry.getEvictionCount());
+        assertEquals(2, registry.size());
+        assertEquals(sa + sc, registry.getUsedBytes());
+
+        long misses = registry.getMissCount();
+        assertSame(da, registry.get(single('a')), "a was evicted instead of b");
+        assertEquals(misses, registry.getMissCount());
+        registry.get(single('b'));
+        assertEquals(misses + 1, registry.getMissCount(), "b is built again");
+        assertTrue(registry.getUsedBytes() <= registry.getMaxBytes());
+    }
+
+    @Test
+    public void largerThanBudget(){
+        AutomatonRegistry registry = new AutomatonRegistry(0);
+        CompiledDFA dfa = registry.get(single('a'));
+        assertTrue(dfa.accepts("a"));
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getUsedBytes());
+    }
+
+    @Test
+    public void largerThanBudgetKeepsOthers(){
+        long small = single('a').getDFA().compile().getMemorySize()
+                + single('b').getDFA().compile().getMemorySize();
+        AutomatonRegistry registry = new AutomatonRegistry(small);
+        CompiledDFA da = registry.get(single('a'));
+        CompiledDFA db = registry.get(single('b'));
+        NFA big = new NFA();
+        chain(big, 50);
+        assertTrue(big.getDFA().compile().getMemorySize() > small);
+        assertTrue(registry.get(big).accepts("a".repeat(50)));
+        assertEquals(2, registry.size());
+        assertEquals(0, registry.getEvictionCount());
+        assertEquals(small, registry.getUsedBytes());
+        assertSame(da, registry.get(single('a')));
+        assertSame(db, registry.get(single('b')));
+    }
+
+    @Test
+    public void alphabetIsPartOfTheStructure(){
+        AutomatonRegistry registry = new AutomatonRegistry(Long.MAX_VALUE);
+        NFA a = single('a');
+        NFA ab = single('a');
+        ab.getABC().add('b');//in the alphabet, but no transition uses it
+        CompiledDFA da = registry.get(a);
+        CompiledDFA dab = registry.get(ab);
+        assertEquals(2, registry.getMissCount());
+        assertEquals(1, da.getSymbolCount());
+        assertEquals(2, dab.getSymbolCount());
+        assertTrue(dab.symbolOf('b') >= 0);
+    }
+
+    @Test
+    public void invalidateAndClear(){
+        AutomatonRegistry registry = new AutomatonRegistry(Long.MAX_VALUE);
+        registry.get(single('a'));
+        registry.get(single('b'));
+        assertTrue(registry.invalidate(single('a')));
+        assertFalse(registry.invalidate(single('a')));
+        assertEquals(1, registry.size());
+        registry.clear();
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getUsedBytes());
+    }
+
+    /**
+     * An NFA whose getDFA waits for a latch, then builds or throws
+     */
+    private static final class BlockingNFA extends NFA {
+        private final CountDownLatch release;
+        private final boolean fail;
+
+        BlockingNFA(CountDownLatch release, boolean fail){
+            this.release = release;
+            this.fail = fail;
+        }
+
+        @Override
+        public synchronized DFA getDFA(){
+            try{
+                this.release.await();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            if(this.fail){
+                throw new IllegalStateException("build failed");
+            }
+            return super.getDFA();
+        }
+    }
+
+    /**
+     * Adds the states of the strings of n a's: q0 (start) to qn (final)
+     */
+    private static void chain(NFA nfa, int n){
+        nfa.addStartState("q0");
+        for(int i = 1; i < n; i++){
+            nfa.addState("q" + i);
+        }
+        nfa.addFinalState("q" + n);
+        for(int i = 0; i < n; i++){
+            nfa.addTransition("q" + i, 'a', "q" + (i + 1));
+        }
+    }
+
+    /**
+     * @return the NFA of the string c
+     */
+    private static NFA single(char c){
+        NFA nfa = new NFA();
+        nfa.addStartState("s");
+        nfa.addFinalState("f");
+        nfa.addTransition("s", c, "f");
+        return nfa;
+    }
+
+    private static NFA random(Random r, int maxStates){
+        NFA nfa = new NFA();
+        int n = 1 + r.nextInt(maxStates);
+        nfa.addStartState("s0");
+        for(int i = 1; i < n; i++){
+            if(r.nextInt(3) == 0){
+                nfa.addFinalState("s" + i);
+            }else{
+                nfa.addState("s" + i);
+            }
+        }
+        int m = r.nextInt(3 * n + 2);
+        for(int i = 0; i < m; i++){
+            char c = r.nextInt(5) == 0 ? 'e' : ABC.charAt(r.nextInt(ABC.length()));
+            nfa.addTransition("s" + r.nextInt(n), c, "s" + r.nextInt(n));
+        }
+        return nfa;
+    }
+
+    /**
+     * Copies an NFA with every name prefixed, adding the transitions in
+     * the order of the original or in reverse
+     */
+    private static NFA copy(NFA nfa, String prefix, boolean reverse){
+        NFA copy = new NFA();
+        List<String[]> transitions = new ArrayList<String[]>();
+        for(State s : nfa.getStates()){
+            NFAState q = (NFAState) s;
+            String name = prefix + q.getName();
+            if(q == nfa.getStartState()){
+                copy.addStartState(name);
+            }else if(q.getIsFinal()){
+                copy.addFinalState(name);
+            }else{
+                copy.addState(name);
+            }
+            Set<NFAState> eps = q.getEpsilonStates();
+            if(eps != null){
+                for(NFAState t : eps){
+                    transitions.add(new String[]{name, "e", prefix + t.getName()});
+                }
+            }
+            for(char c : nfa.getABC()){
+                Set<NFAState> to = q.getToStates(c);
+                if(to != null){
+                    for(NFAState t : to){
+                        transitions.add(new String[]{name, String.valueOf(c), prefix + t.getName()});
+                    }
+                }
+            }
+        }
+        if(reverse){
+            Collections.reverse(transitions);
+        }
+        for(String[] t : transitions){
+            copy.addTransition(t[0], t[1].charAt(0), t[2]);
+        }
+        return copy;
+    }
+
+    private static String word(Random r, int maxLength){
+        char[] w = new char[r.nextInt(maxLength + 1)];
+        for(int i = 0; i < w.length; i++){
+            w[i] = ABC.charAt(r.nextInt(ABC.length()));
+        }
+        return new String(w);
+    }
+}
@@ -0,0 +1,96 @@
+package fa.nfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import fa.dfa.DFA;
+
+/**
+ * NFA.getDFA() after changes re-explores only the subsets that contain a
+ * state with a new transition. Whatever it reuses, the result must be
+ * the DFA that a new NFA built with the same calls returns.
+ */
+public class IncrementalDFATest {
+
+    private static final String ABC = "abcdz";
+
+    @Test
+    public void sameDFAAsFreshNFA(){
+        Random r = new Random(7);
+        for(int seed = 0; seed < 3000; seed++){
+            run(r, "seed " + seed);
+        }
+    }
+
+    /**
+     * Applies random rounds of new states and transitions to an NFA and
+     * compares its DFA after every round with the DFA of an NFA that
+     * replays all calls so far
+     */
+    private static void run(Random r, String what){
+        List<Consumer<NFA>> calls = new ArrayList<Consumer<NFA>>();
+        NFA nfa = new NFA();
+        apply(nfa, calls, x -> x.addStartState("s0"));
+        int n = 1 + r.nextInt(6);
+        for(int i = 1; i < n; i++){
+            addState(nfa, calls, "s" + i, r.nextBoolean());
+        }
+        for(int round = 0; round < 12; round++){
+            int changes = r.nextInt(4);
+            for(int i = 0; i < changes; i++){
+                int kind = r.nextInt(12);
+                if(kind == 0){
+                    addState(nfa, calls, "s" + n++, r.nextBoolean());
+                }else{
+                    String from = "s" + r.nextInt(n);
+                    String to = "s" + r.nextInt(n);
+                    //the alphabet grows over the rounds, so later rounds add new symbols
+                    char c = kind == 1 && r.nextInt(3) == 0 ? 'e' : ABC.charAt(r.nextInt(1 + Math.min(4, round / 3)));
+                    apply(nfa, calls, x -> x.addTransition(from, c, to));
+                }
+            }
+            DFA dfa = nfa.getDFA();
+            assertSame(dfa, nfa.getDFA(), what + ": the DFA is not cached");
+            NFA fresh = new NFA();
+            for(Consumer<NFA> call : calls){
+                call.accept(fresh);
+            }
+            String expected = fresh.getDFA().toString();
+            assertEquals(expected, dfa.toString(), what + ", round " + round);
+
+            //a DFA changed by its user must not be returned again, and
+            //minimizing it must not leak into the next result
+            int change = r.nextInt(10);
+            if(change == 0){
+                dfa.addState("z" + round);
+                assertNotSame(dfa, nfa.getDFA(), what + ": a changed DFA is returned");
+            }else if(change == 1){
+                dfa.minimize();
+            }
+            if(change <= 1){
+                assertEquals(expected, nfa.getDFA().toString(), what + ", round " + round + " after a DFA change");
+            }
+        }
+    }
+
+    private static void addState(NFA nfa, List<Consumer<NFA>> calls, String name, boolean isFinal){
+        if(isFinal){
+            apply(nfa, calls, x -> x.addFinalState(name));
+        }else{
+            apply(nfa, calls, x -> x.addState(name));
+        }
+    }
+
+    private static void apply(NFA nfa, List<Consumer<NFA>> calls, Consumer<NFA> call){
+        call.accept(nfa);
+        calls.add(call);
+    }
+}
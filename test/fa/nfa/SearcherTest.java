@@ -0,0 +1,180 @@
+package fa.nfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Searcher reports the leftmost-longest matches of an NFA from left to
+ * right, each starting at or after the end of the one before.
+ */
+public class SearcherTest {
+
+    @Test
+    public void leftmostBeforeLongest(){
+        NFA nfa = union("ab", "bcd");
+        assertEquals(List.of("0-2"), matches(nfa, "abcd"));
+        assertEquals(List.of("1-4"), matches(nfa, "xbcd"));
+    }
+
+    @Test
+    public void longestAtTheSameStart(){
+        NFA nfa = union("a", "ab", "abab");
+        assertEquals(List.of("0-4", "4-6", "6-7"), matches(nfa, "abababa"));
+    }
+
+    @Test
+    public void overlappingMatchesAreNotReported(){
+        NFA nfa = union("aba");
+        assertEquals(List.of("0-3"), matches(nfa, "ababa"));
+        assertEquals(List.of("0-3", "4-7"), matches(nfa, "abababa"));
+    }
+
+    @Test
+    public void emptyMatches(){
+        //a*
+        NFA nfa = new NFA();
+        nfa.addStartState("s");
+        nfa.addFinalState("f");
+        nfa.addEpsilonTransition("s", "f");
+        nfa.addTransition("f", 'a', "f");
+        assertEquals(List.of("0-0", "1-3", "3-3", "4-4"), matches(nfa, "baab"));
+        assertEquals(List.of("0-0"), matches(nfa, ""));
+    }
+
+    /**
+     * a|a*b reads past every a of a run to look for a b, so a long run
+     * is where a search could read the text again for every match
+     */
+    @Test
+    public void longRuns(){
+        NFA nfa = new NFA();
+        nfa.addStartState("s");
+        nfa.addState("r");
+        nfa.addFinalState("f");
+        nfa.addTransition("s", 'a', "f");
+        nfa.addEpsilonTransition("s", "r");
+        nfa.addTransition("r", 'a', "r");
+        nfa.addTransition("r", 'b', "f");
+        Searcher searcher = new Searcher(nfa);
+        String run = "a".repeat(200000);
+        assertEquals(run.length(), searcher.countMatches(run));
+        assertEquals(List.of("0-" + (run.length() + 1)), matches(nfa, run + "b"));
+        List<String> expected = new ArrayList<String>();
+        for(int i = 0; i < 100; i++){
+            expected.add(i + "-" + (i + 1));
+        }
+        expected.add("101-" + (run.length() + 102));
+        assertEquals(expected, matches(nfa, run.substring(0, 100) + "x" + run + "b"));
+    }
+
+    @Test
+    public void range(){
+        NFA nfa = union("ab", "b");
+        List<String> found = new ArrayList<String>();
+        new Searcher(nfa).forEachMatch("abab", 1, 3, (start, end) -> found.add(start + "-" + end));
+        assertEquals(List.of("1-2"), found);
+    }
+
+    /**
+     * Compares the matches in short texts with the matches found by
+     * trying every substring on NFA.accepts
+     */
+    @Test
+    public void sameAsBruteForce(){
+        Random r = new Random(11);
+        for(int seed = 0; seed < 2000; seed++){
+            NFA nfa = random(r);
+            for(int i = 0; i < 10; i++){
+                StringBuilder text = new StringBuilder();
+                int n = r.nextInt(20);
+                for(int j = 0; j < n; j++){
+                    text.append("abcx".charAt(r.nextInt(4)));
+                }
+                String t = text.toString();
+                assertEquals(bruteForce(nfa, t), matches(nfa, t), "seed " + seed + ", " + t);
+            }
+        }
+    }
+
+    private static List<String> matches(NFA nfa, String text){
+        List<String> found = new ArrayList<String>();
+        new Searcher(nfa).forEachMatch(text, (start, end) -> found.add(start + "-" + end));
+        return found;
+    }
+
+    private static List<String> bruteForce(NFA nfa, String text){
+        List<String> found = new ArrayList<String>();
+        int pos = 0;
+        while(pos <= text.length()){
+            int start = -1;
+            int end = -1;
+            for(int i = pos; i <= text.length() && start < 0; i++){
+                for(int j = text.length(); j >= i; j--){
+                    if(nfa.accepts(text.substring(i, j))){
+                        start = i;
+                        end = j;
+                        break;
+                    }
+                }
+            }
+            if(start < 0){
+                break;
+            }
+            found.add(start + "-" + end);
+            pos = end > start ? end : start + 1;
+        }
+        return found;
+    }
+
+    /**
+     * @return an NFA that accepts exactly the given words
+     */
+    private static NFA union(String... words){
+        NFA nfa = new NFA();
+        nfa.addStartState("s");
+        for(int w = 0; w < words.length; w++){
+            String prev = "s";
+            for(int i = 0; i < words[w].length(); i++){
+                String next = "w" + w + "_" + i;
+                if(i == words[w].length() - 1){
+                    nfa.addFinalState(next);
+                }else{
+                    nfa.addState(next);
+                }
+                nfa.addTransition(prev, words[w].charAt(i), next);
+                prev = next;
+            }
+        }
+        return nfa;
+    }
+
+    private static NFA random(Random r){
+        NFA nfa = new NFA();
+        int n = 1 + r.nextInt(6);
+        nfa.addStartState("s0");
+        for(int i = 1; i < n; i++){
+            if(r.nextInt(3) == 0){
+                nfa.addFinalState("s" + i);
+            }else{
+                nfa.addState("s" + i);
+            }
+        }
+        int m = r.nextInt(3 * n + 2);
+        for(int i = 0; i < m; i++){
+            String from = "s" + r.nextInt(n);
+            String to = "s" + r.nextInt(n);
+            if(r.nextInt(5) == 0){
+                nfa.addEpsilonTransition(from, to);
+            }else{
+                nfa.addTransition(from, "abc".charAt(r.nextInt(3)), to);
+            }
+        }
+        nfa.addTransition("s" + r.nextInt(n), 'a', "s" + r.nextInt(n));
+        return nfa;
+    }
+}